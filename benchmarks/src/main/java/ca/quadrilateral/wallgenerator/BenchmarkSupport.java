@@ -0,0 +1,128 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Random;
+
+import ca.quadrilateral.wallgenerator.config.ConfigManager;
+import ca.quadrilateral.wallgenerator.config.PostProcessingConfig;
+import ca.quadrilateral.wallgenerator.settings.Presets;
+
+import com.mortennobel.imagescaling.AdvancedResizeOp.UnsharpenMask;
+
+/*
+ * Shared set up for the benchmarks.  config.xml is read from the wallgen.config system property,
+ * the working directory or its parent, so the benchmarks run from either the project root or the
+ * benchmarks directory.  Sources are synthetic and seeded, so every run measures the same pixels.
+ */
+final class BenchmarkSupport {
+    static final String CONFIG_PROPERTY = "wallgen.config";
+
+    private static ConfigManager configManager = null;
+
+    private BenchmarkSupport() {
+    }
+
+    static synchronized ConfigManager getConfigManager() throws Exception {
+        if (configManager == null) {
+            final ConfigManager manager = new ConfigManager();
+            manager.loadConfig(findConfigFile());
+            WallGenerator.setConfigManager(manager);
+            configManager = manager;
+        }
+        return configManager;
+    }
+
+    private static File findConfigFile() {
+        final String configPath = System.getProperty(CONFIG_PROPERTY);
+        if (configPath != null) {
+            return new File(configPath);
+        }
+        final File configFile = new File("config.xml");
+        return configFile.canRead() ? configFile : new File("..", "config.xml");
+    }
+
+    /* Smooth gradients with noise on top, and a scattering of translucent and clear pixels when there is alpha */
+    static BufferedImage createSource(int width, int height, String pixelType) {
+        final BufferedImage image = new BufferedImage(width, height, getImageType(pixelType));
+        final boolean hasAlpha = image.getColorModel().hasAlpha();
+        final Random random = new Random(width * 31L + height);
+        final int[] row = new int[width];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                final int red = ((x * 255) / width + random.nextInt(32)) & 0xFF;
+                final int green = ((y * 255) / height + random.nextInt(32)) & 0xFF;
+                final int blue = (((x + y) * 127) / (width + height) + random.nextInt(64)) & 0xFF;
+                int alpha = 0xFF;
+                if (hasAlpha) {
+                    final int chance = random.nextInt(16);
+                    alpha = chance == 0 ? 0 : (chance == 1 ? 0x80 : 0xFF);
+                }
+                row[x] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    static int getImageType(String pixelType) {
+        if ("INT_RGB".equals(pixelType)) {
+            return BufferedImage.TYPE_INT_RGB;
+        } else if ("INT_ARGB".equals(pixelType)) {
+            return BufferedImage.TYPE_INT_ARGB;
+        } else if ("3BYTE_BGR".equals(pixelType)) {
+            return BufferedImage.TYPE_3BYTE_BGR;
+        }
+        throw new IllegalArgumentException("Unknown pixel type: " + pixelType);
+    }
+
+    /* Settings that exercise every stage: both darkenings, softening and an unsharp mask */
+    static PostProcessingConfig createPostProcessingConfig(String scalingMethod) {
+        final PostProcessingConfig config = new PostProcessingConfig();
+        config.scalingMethod = Presets.SCALING_METHODS.get(scalingMethod);
+        config.unsharpenMask = UnsharpenMask.Normal;
+        config.softening = 0.1f;
+        config.nearDarkening = 0.25f;
+        config.farDarkening = 0.5f;
+        config.postProcessingOrder = PostProcessingConfig.UNSHARPEN_BEFORE_SOFTEN;
+        config.distanceBlendColor = Color.BLACK;
+        return config;
+    }
+
+    /* Scaling only, with no softening or unsharp mask after it */
+    static PostProcessingConfig createScalingOnlyConfig(String scalingMethod) {
+        final PostProcessingConfig config = createPostProcessingConfig(scalingMethod);
+        config.unsharpenMask = UnsharpenMask.None;
+        config.softening = 0f;
+        return config;
+    }
+}
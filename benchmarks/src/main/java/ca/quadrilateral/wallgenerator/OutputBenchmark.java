@@ -0,0 +1,124 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.quadrilateral.wallgenerator.config.Config;
+import ca.quadrilateral.wallgenerator.config.SingleFileOutputConfig;
+
+/* SingleFileOutputGenerator composing the wall set, encoding it, and both together as the UI does */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputBenchmark {
+    @Param({"640x480", "1024x768"})
+    public String resolution;
+
+    @Param({"DC Standard", "DC Hyper"})
+    public String outputFormat;
+
+    @Param({"BMP", "PNG"})
+    public String fileType;
+
+    @Param({"false", "true"})
+    public boolean useTransparency;
+
+    private SingleFileOutputGenerator outputGenerator;
+    private SingleFileOutputConfig outputConfig;
+    private List<Map<String, BufferedImage>> images;
+    private BufferedImage composedImage;
+    private File directory;
+    private File encodedFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Config config = BenchmarkSupport.getConfigManager().getConfig(resolution);
+        final Generator generator = new Generator(config, BenchmarkSupport.createPostProcessingConfig("Resample"));
+        images = new ArrayList<Map<String, BufferedImage>>();
+        images.add(generator.generate(BenchmarkSupport.createSource(1024, 1024, "INT_RGB"), 1, 1));
+
+        outputGenerator = new SingleFileOutputGenerator();
+        outputConfig = (SingleFileOutputConfig)config.getOutputConfig(outputFormat);
+        composedImage = compose();
+
+        directory = Files.createTempDirectory("wallgen-benchmark").toFile();
+        encodedFile = new File(directory, "encoded." + fileType.toLowerCase());
+    }
+
+    @TearDown
+    public void tearDown() {
+        for(File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public BufferedImage compose() {
+        final BufferedImage outputImage = new BufferedImage(outputConfig.getOutputWidth(), outputConfig.getOutputHeight(),
+                useTransparency ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        outputGenerator.generateOutput(images, outputImage, outputConfig, useTransparency);
+        return outputImage;
+    }
+
+    @Benchmark
+    public File encode() throws IOException {
+        OutputGenerator.writeImage(composedImage, fileType, encodedFile);
+        return encodedFile;
+    }
+
+    @Benchmark
+    public void composeAndEncode() throws IOException {
+        outputGenerator.generate(outputConfig, directory, "benchmark", fileType, images, useTransparency);
+    }
+}
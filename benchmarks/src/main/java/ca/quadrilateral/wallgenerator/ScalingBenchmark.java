@@ -0,0 +1,85 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.quadrilateral.wallgenerator.config.Config;
+
+/* Scaling a source down to the CloseFront wall with each of the scaling methods offered in the UI */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalingBenchmark {
+    @Param({"Nearest Neighbour", "Bilinear", "Bicubic", "Resample"})
+    public String scalingMethod;
+
+    @Param({"640x480", "1024x768"})
+    public String resolution;
+
+    @Param({"512", "2048"})
+    public int sourceSize;
+
+    @Param({"INT_RGB", "INT_ARGB", "3BYTE_BGR"})
+    public String pixelType;
+
+    private Generator generator;
+    private BufferedImage source;
+    private Dimension closeFrontSize;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Config config = BenchmarkSupport.getConfigManager().getConfig(resolution);
+        generator = new Generator(config, BenchmarkSupport.createScalingOnlyConfig(scalingMethod));
+        source = BenchmarkSupport.createSource(sourceSize, sourceSize, pixelType);
+        closeFrontSize = config.getWallSize("CloseFront");
+    }
+
+    @Benchmark
+    public BufferedImage scaleToCloseFront() {
+        return generator.scaleImage(source, closeFrontSize);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.quadrilateral.wallgenerator.config.Config;
+
+import com.mortennobel.imagescaling.AdvancedResizeOp.UnsharpenMask;
+
+/* The individual Generator stages, each run on the CloseFront view of a generated wall */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmark {
+    @Param({"640x480", "1024x768"})
+    public String resolution;
+
+    @Param({"INT_RGB", "INT_ARGB"})
+    public String pixelType;
+
+    private Generator generator;
+    private Map<String, BufferedImage> views;
+    private BufferedImage closeFront;
+    private BufferedImage closeFrontRightHalf;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Config config = BenchmarkSupport.getConfigManager().getConfig(resolution);
+        generator = new Generator(config, BenchmarkSupport.createPostProcessingConfig("Resample"));
+        views = generator.generate(BenchmarkSupport.createSource(1024, 1024, pixelType), 1, 1);
+
+        /* A private copy in the source's pixel type, as the scaler hands it to the later stages */
+        final BufferedImage view = views.get("CloseFront");
+        closeFront = BenchmarkSupport.createSource(view.getWidth(), view.getHeight(), pixelType);
+        closeFront.createGraphics().drawImage(view, 0, 0, null);
+        closeFrontRightHalf = closeFront.getSubimage(closeFront.getWidth() / 2, 0, closeFront.getWidth() / 2, closeFront.getHeight());
+    }
+
+    @Benchmark
+    public BufferedImage transformCloseSide() {
+        return generator.generateTransformedImage(closeFrontRightHalf, "CloseSide", "CloseLeft");
+    }
+
+    @Benchmark
+    public BufferedImage transformNearSide() {
+        return generator.generateTransformedImage(closeFront, "NearSide", "NearLeft");
+    }
+
+    @Benchmark
+    public BufferedImage darkenedSourceImage() {
+        return generator.getDarkenedSourceImage(closeFront, 0.25f, 0.5f, true, Color.BLACK);
+    }
+
+    @Benchmark
+    public BufferedImage soften() {
+        return generator.soften(closeFront, 0.1f);
+    }
+
+    @Benchmark
+    public BufferedImage unsharpMask() {
+        return generator.unsharpMask(closeFront, UnsharpenMask.Normal);
+    }
+
+    @Benchmark
+    public Map<String, BufferedImage> generateStoryImages() {
+        return generator.generateStoryImages(views, 2);
+    }
+}
@@ -0,0 +1,420 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import javax.imageio.ImageIO;
+
+import ca.quadrilateral.wallgenerator.config.Config;
+import ca.quadrilateral.wallgenerator.config.ConfigManager;
+import ca.quadrilateral.wallgenerator.config.OutputConfig;
+import ca.quadrilateral.wallgenerator.config.PostProcessingConfig;
+import ca.quadrilateral.wallgenerator.config.SingleFileOutputConfig;
+
+import com.mortennobel.imagescaling.AdvancedResizeOp.UnsharpenMask;
+
+/*
+ * Renders a fixed synthetic corpus through every resolution, output format and a set of post
+ * processing variants, and records the results as reference PNGs or compares against references
+ * recorded earlier.  Only classes and methods that were public in the first release are used, so
+ * references can be recorded from that release, or from any later commit, and the current tree
+ * verified against them.  Run it from the folder holding config.xml:
+ *
+ *   java -jar conformance/target/conformance.jar record <directory>
+ *   java -jar conformance/target/conformance.jar verify <directory>
+ *
+ * Walls come straight from Generator, story by story the way the first release built them, so no
+ * source, stage or view cache can hand back an image made by older code.  Outputs are written by
+ * SingleFileOutputGenerator and decoded again, which checks the encoders along the way.  Pixels
+ * that are fully transparent in both images count as equal whatever their colour, since no
+ * output shows them.
+ */
+public final class ConformanceCheck {
+    private static final String RECORD = "record";
+    private static final String VERIFY = "verify";
+    private static final String REFERENCE_VARIANT = "resample-normal";
+    private static final String REFERENCE_FILE_TYPE = "PNG";
+
+    private final ConfigManager configManager;
+    private final PrintStream out;
+    private final boolean record;
+    private final File referenceDirectory;
+
+    private int tolerance = 0;
+    private File diffDirectory = null;
+    private List<String> resolutions = null;
+
+    private File workDirectory = null;
+    private int checkedImages = 0;
+    private int failedImages = 0;
+    private int missingImages = 0;
+
+    private ConformanceCheck(ConfigManager configManager, PrintStream out, boolean record, File referenceDirectory) {
+        this.configManager = configManager;
+        this.out = out;
+        this.record = record;
+        this.referenceDirectory = referenceDirectory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int exitCode;
+        if (args.length < 2 || !(RECORD.equals(args[0]) || VERIFY.equals(args[0]))) {
+            printUsage(System.out);
+            exitCode = 1;
+        } else {
+            final ConformanceCheck check = new ConformanceCheck(loadConfigManager(), System.out, RECORD.equals(args[0]), new File(args[1]));
+            exitCode = check.parseOptions(Arrays.asList(args).subList(2, args.length)) ? check.run() : 1;
+        }
+        System.exit(exitCode);
+    }
+
+    /* The output generators read their colours through WallGenerator, which only main used to set up */
+    private static ConfigManager loadConfigManager() throws Exception {
+        final ConfigManager configManager = new ConfigManager();
+        configManager.loadConfig();
+
+        final Field configManagerField = WallGenerator.class.getDeclaredField("configManager");
+        configManagerField.setAccessible(true);
+        configManagerField.set(null, configManager);
+        return configManager;
+    }
+
+    private static void printUsage(PrintStream out) {
+        out.println("Usage: ConformanceCheck record|verify <reference directory> [options]");
+        out.println();
+        out.println("  --tolerance <n>           largest per-channel difference accepted (default: 0, exact)");
+        out.println("  --diffs <directory>       write a diff image for every image that does not match");
+        out.println("  --resolutions <list>      comma separated resolutions to check (default: all)");
+    }
+
+    private boolean parseOptions(List<String> options) {
+        for(int i = 0; i < options.size(); i += 2) {
+            if (i + 1 >= options.size()) {
+                printUsage(out);
+                return false;
+            }
+            final String option = options.get(i);
+            final String value = options.get(i + 1);
+            if ("--tolerance".equals(option)) {
+                tolerance = Integer.parseInt(value);
+            } else if ("--diffs".equals(option)) {
+                diffDirectory = new File(value);
+            } else if ("--resolutions".equals(option)) {
+                resolutions = Arrays.asList(value.split("\\s*,\\s*"));
+            } else {
+                printUsage(out);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int run() throws Exception {
+        final long startTime = System.nanoTime();
+        workDirectory = Files.createTempDirectory("wallgen-conformance").toFile();
+        try {
+            final Map<String, BufferedImage> corpus = readCorpus();
+            final Map<String, PostProcessingConfig> variants = createVariants();
+            for(String resolution : resolutions != null ? resolutions : configManager.getAvailableResolutions()) {
+                out.println("Checking " + resolution + "...");
+                for(Map.Entry<String, PostProcessingConfig> variant : variants.entrySet()) {
+                    for(Map.Entry<String, BufferedImage> source : corpus.entrySet()) {
+                        checkCase(resolution, source.getKey() + "/" + variant.getKey(), Collections.singletonList(source.getValue()), 1, variant.getValue());
+                    }
+                }
+                checkCase(resolution, "tiled-2/" + REFERENCE_VARIANT, Arrays.asList(corpus.get("bricks"), corpus.get("bricks")), 1, variants.get(REFERENCE_VARIANT));
+                checkCase(resolution, "single-file-3/" + REFERENCE_VARIANT, Collections.singletonList(corpus.get("tall")), 3, variants.get(REFERENCE_VARIANT));
+                checkCase(resolution, "individual-files-3/" + REFERENCE_VARIANT, Arrays.asList(corpus.get("bricks"), corpus.get("noise"), corpus.get("tall")), 1, variants.get(REFERENCE_VARIANT));
+            }
+        } finally {
+            deleteDirectory(workDirectory);
+        }
+
+        final double elapsedSeconds = (System.nanoTime() - startTime) / 1000000000.0;
+        if (record) {
+            out.println(String.format(Locale.US, "Recorded %d reference images in %.1f s", checkedImages, elapsedSeconds));
+            return 0;
+        }
+        out.println(String.format(Locale.US, "Checked %d images in %.1f s: %d differ, %d missing (tolerance %d)",
+                checkedImages, elapsedSeconds, failedImages, missingImages, tolerance));
+        return failedImages == 0 && missingImages == 0 ? 0 : 1;
+    }
+
+    /*
+     * Hard edges for the scalers, odd sizes with translucent and clear pixels, and a tall image to cut
+     * into stories.  They go through PNG files so the generator sees the image types a decoder gives it.
+     */
+    private Map<String, BufferedImage> readCorpus() throws IOException {
+        final Map<String, BufferedImage> images = new LinkedHashMap<String, BufferedImage>();
+        images.put("bricks", createBricks(512, 512));
+        images.put("noise", createNoise(300, 260, BufferedImage.TYPE_INT_ARGB));
+        images.put("tall", createNoise(256, 768, BufferedImage.TYPE_INT_RGB));
+
+        final Map<String, BufferedImage> corpus = new LinkedHashMap<String, BufferedImage>();
+        for(Map.Entry<String, BufferedImage> image : images.entrySet()) {
+            final File sourceFile = new File(workDirectory, image.getKey() + ".png");
+            ImageIO.write(image.getValue(), "png", sourceFile);
+            corpus.put(image.getKey(), ImageIO.read(sourceFile));
+        }
+        return corpus;
+    }
+
+    private static BufferedImage createBricks(int width, int height) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(180, 170, 150));
+        graphics.fillRect(0, 0, width, height);
+        for(int row = 0; row * 32 < height; row++) {
+            for(int column = -1; column * 64 < width; column++) {
+                final int shade = ((row * 7 + column * 13) & 15) * 6;
+                graphics.setColor(new Color(150 + shade / 2, 60 + shade / 3, 40 + shade / 4));
+                graphics.fillRect(column * 64 + (row & 1) * 32 + 2, row * 32 + 2, 60, 28);
+            }
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    /* Smooth gradients with seeded noise on top, and a scattering of translucent and clear pixels when there is alpha */
+    private static BufferedImage createNoise(int width, int height, int imageType) {
+        final BufferedImage image = new BufferedImage(width, height, imageType);
+        final boolean hasAlpha = image.getColorModel().hasAlpha();
+        final Random random = new Random(width * 31L + height);
+        final int[] row = new int[width];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                final int red = ((x * 255) / width + random.nextInt(32)) & 0xFF;
+                final int green = ((y * 255) / height + random.nextInt(32)) & 0xFF;
+                final int blue = (((x + y) * 127) / (width + height) + random.nextInt(64)) & 0xFF;
+                int alpha = 0xFF;
+                if (hasAlpha) {
+                    final int chance = random.nextInt(16);
+                    alpha = chance == 0 ? 0 : (chance == 1 ? 0x80 : 0xFF);
+                }
+                row[x] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    /* Between them the variants use every scaling method, unsharp mask and filter order */
+    private static Map<String, PostProcessingConfig> createVariants() {
+        final Map<String, PostProcessingConfig> variants = new LinkedHashMap<String, PostProcessingConfig>();
+        variants.put("plain", createVariant(RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR, UnsharpenMask.None, 0f, 0f, 0f, PostProcessingConfig.UNSHARPEN_BEFORE_SOFTEN, Color.BLACK));
+        variants.put("bilinear-soft", createVariant(RenderingHints.VALUE_INTERPOLATION_BILINEAR, UnsharpenMask.Soft, 0.2f, 0.25f, 0.5f, PostProcessingConfig.UNSHARPEN_BEFORE_SOFTEN, new Color(20, 40, 90)));
+        variants.put("bicubic-sharp", createVariant(RenderingHints.VALUE_INTERPOLATION_BICUBIC, UnsharpenMask.VerySharp, 0.1f, 0.3f, 0.6f, PostProcessingConfig.SOFTEN_BEFORE_UNSHARPEN, Color.BLACK));
+        variants.put(REFERENCE_VARIANT, createVariant("Resample", UnsharpenMask.Normal, 0.1f, 0.25f, 0.5f, PostProcessingConfig.UNSHARPEN_BEFORE_SOFTEN, new Color(60, 60, 60)));
+        return variants;
+    }
+
+    private static PostProcessingConfig createVariant(Object scalingMethod, UnsharpenMask unsharpenMask, float softening, float nearDarkening, float farDarkening, int postProcessingOrder, Color distanceBlendColor) {
+        final PostProcessingConfig config = new PostProcessingConfig();
+        config.scalingMethod = scalingMethod;
+        config.unsharpenMask = unsharpenMask;
+        config.softening = softening;
+        config.nearDarkening = nearDarkening;
+        config.farDarkening = farDarkening;
+        config.postProcessingOrder = postProcessingOrder;
+        config.distanceBlendColor = distanceBlendColor;
+        return config;
+    }
+
+    /* One source cut into stories when storiesForSingleImage is more than one, otherwise one source per story */
+    private static List<Map<String, BufferedImage>> generateWalls(Config config, PostProcessingConfig postProcessingConfig, List<BufferedImage> sourceImages, int storiesForSingleImage) {
+        final List<Map<String, BufferedImage>> walls = new ArrayList<Map<String, BufferedImage>>();
+        if (storiesForSingleImage > 1) {
+            for(int story = 1; story <= storiesForSingleImage; story++) {
+                walls.add(new Generator(config, postProcessingConfig).generate(sourceImages.get(0), story, storiesForSingleImage));
+            }
+        } else {
+            for(int i = 0; i < sourceImages.size(); i++) {
+                walls.add(new Generator(config, postProcessingConfig).generate(sourceImages.get(i), i + 1));
+            }
+        }
+        return walls;
+    }
+
+    private void checkCase(String resolution, String caseName, List<BufferedImage> sourceImages, int storiesForSingleImage, PostProcessingConfig postProcessingConfig) throws IOException {
+        final Config config = configManager.getConfig(resolution);
+        final List<Map<String, BufferedImage>> images = generateWalls(config, postProcessingConfig, sourceImages, storiesForSingleImage);
+        final String casePath = resolution + "/" + caseName;
+
+        for(int i = 0; i < images.size(); i++) {
+            for(Map.Entry<String, BufferedImage> view : new TreeMap<String, BufferedImage>(images.get(i)).entrySet()) {
+                final String imageName = casePath + "/views/" + view.getKey() + "_story" + (i + 1);
+                checkImage(imageName, imageName, view.getValue());
+            }
+        }
+
+        for(String outputFormat : config.getOutputConfigTypes()) {
+            final OutputConfig outputConfig = config.getOutputConfig(outputFormat);
+            if (!(outputConfig instanceof SingleFileOutputConfig) || (images.size() > 1 && !outputConfig.isSupportsMultiStory())) {
+                continue;
+            }
+            for(boolean useTransparency : new boolean[] {true, false}) {
+                final String imageName = casePath + "/" + outputFormat.replace(' ', '_') + (useTransparency ? "" : "_opaque");
+                for(String fileType : getFileTypes(caseName, useTransparency)) {
+                    final BufferedImage outputImage = writeOutput(outputConfig, fileType, images, useTransparency);
+                    checkImage(imageName, REFERENCE_FILE_TYPE.equals(fileType) ? imageName : imageName + " as " + fileType, outputImage);
+                }
+            }
+        }
+    }
+
+    /*
+     * Every file type that can hold the output has to decode to the same pixels as the reference.  The
+     * encoders do not care how the walls were filtered, so the other file types only run for one variant.
+     */
+    private List<String> getFileTypes(String caseName, boolean useTransparency) {
+        final List<String> fileTypes = new ArrayList<String>();
+        fileTypes.add(REFERENCE_FILE_TYPE);
+        if (!record && caseName.endsWith(REFERENCE_VARIANT)) {
+            for(String fileType : configManager.getAvailableOutputFileTypes()) {
+                if (!REFERENCE_FILE_TYPE.equals(fileType) && (!useTransparency || configManager.getOutputFileConfig(fileType).isSupportsTransparency())) {
+                    fileTypes.add(fileType);
+                }
+            }
+        }
+        return fileTypes;
+    }
+
+    private BufferedImage writeOutput(OutputConfig outputConfig, String fileType, List<Map<String, BufferedImage>> images, boolean useTransparency) throws IOException {
+        final File outputFile = new File(workDirectory, "output." + fileType.toLowerCase());
+        new SingleFileOutputGenerator().generate(outputConfig, workDirectory, "output", fileType, images, useTransparency);
+        final BufferedImage outputImage = ImageIO.read(outputFile);
+        outputFile.delete();
+        return outputImage;
+    }
+
+    private void checkImage(String imageName, String label, BufferedImage image) throws IOException {
+        final File referenceFile = new File(referenceDirectory, imageName + ".png");
+        checkedImages++;
+        if (record) {
+            if (image == null) {
+                throw new IOException(label + " could not be decoded");
+            }
+            referenceFile.getParentFile().mkdirs();
+            ImageIO.write(image, "png", referenceFile);
+        } else if (!referenceFile.isFile()) {
+            missingImages++;
+            out.println("MISSING " + label);
+        } else {
+            compare(label, ImageIO.read(referenceFile), image);
+        }
+    }
+
+    private void compare(String label, BufferedImage expected, BufferedImage actual) throws IOException {
+        if (actual == null) {
+            failedImages++;
+            out.println("FAIL " + label + ": could not be decoded");
+            return;
+        }
+        if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()) {
+            failedImages++;
+            out.println("FAIL " + label + ": " + actual.getWidth() + "x" + actual.getHeight()
+                    + ", expected " + expected.getWidth() + "x" + expected.getHeight());
+            return;
+        }
+
+        final int width = expected.getWidth();
+        final int[] expectedRow = new int[width];
+        final int[] actualRow = new int[width];
+        final BufferedImage diffImage = new BufferedImage(width, expected.getHeight(), BufferedImage.TYPE_INT_RGB);
+        int differingPixels = 0;
+        int largestDifference = 0;
+        for(int y = 0; y < expected.getHeight(); y++) {
+            expected.getRGB(0, y, width, 1, expectedRow, 0, width);
+            actual.getRGB(0, y, width, 1, actualRow, 0, width);
+            for(int x = 0; x < width; x++) {
+                final int difference = getDifference(expectedRow[x], actualRow[x]);
+                largestDifference = Math.max(largestDifference, difference);
+                if (difference > tolerance) {
+                    differingPixels++;
+                    expectedRow[x] = 0xFF0000;
+                } else {
+                    /* Matching pixels are kept as a dim grey copy so the differences stand out */
+                    final int grey = (((expectedRow[x] >> 16) & 0xFF) + ((expectedRow[x] >> 8) & 0xFF) + (expectedRow[x] & 0xFF)) / 6;
+                    expectedRow[x] = difference > 0 ? 0xFFFF00 : (grey << 16) | (grey << 8) | grey;
+                }
+            }
+            diffImage.setRGB(0, y, width, 1, expectedRow, 0, width);
+        }
+
+        if (differingPixels > 0) {
+            failedImages++;
+            out.println("FAIL " + label + ": " + differingPixels + " of " + (width * expected.getHeight())
+                    + " pixels differ, largest channel difference " + largestDifference);
+            if (diffDirectory != null) {
+                final File diffFile = new File(diffDirectory, label.replace(' ', '_') + ".png");
+                diffFile.getParentFile().mkdirs();
+                ImageIO.write(diffImage, "png", diffFile);
+            }
+        }
+    }
+
+    private static int getDifference(int expected, int actual) {
+        if (expected == actual || ((expected >>> 24) == 0 && (actual >>> 24) == 0)) {
+            return 0;
+        }
+        int difference = 0;
+        for(int shift = 0; shift < 32; shift += 8) {
+            difference = Math.max(difference, Math.abs(((expected >>> shift) & 0xFF) - ((actual >>> shift) & 0xFF)));
+        }
+        return difference;
+    }
+
+    private static void deleteDirectory(File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for(File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
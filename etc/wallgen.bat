@@ -1,2 +1,2 @@
 @echo off
-java -jar wall-generator-{version}.one-jar.jar
+java -jar wall-generator-{version}.one-jar.jar %*
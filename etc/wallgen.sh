@@ -1,2 +1,2 @@
 #!/bin/bash
-java -jar wall-generator-{version}.one-jar.jar
+java -jar wall-generator-{version}.one-jar.jar "$@"
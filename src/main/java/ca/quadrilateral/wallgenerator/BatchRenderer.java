@@ -0,0 +1,354 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.quadrilateral.wallgenerator.config.Config;
+import ca.quadrilateral.wallgenerator.config.ConfigManager;
+import ca.quadrilateral.wallgenerator.config.FileSelectionConfig;
+import ca.quadrilateral.wallgenerator.config.OutputConfig;
+import ca.quadrilateral.wallgenerator.config.PostProcessingConfig;
+import ca.quadrilateral.wallgenerator.filefilter.ImageIOSupportedImageTypeFileFilter;
+import ca.quadrilateral.wallgenerator.settings.Presets;
+import ca.quadrilateral.wallgenerator.settings.SettingsDeserializer;
+
+/*
+ * Renders every image in a source directory for a list of resolutions and output formats without
+ * building the UI.  Each texture is handled by one worker; outputs are written to
+ * <target>/<resolution>/<output format>/<texture name>.<file type>.
+ */
+public class BatchRenderer {
+	private static final Logger log = LoggerFactory.getLogger(BatchRenderer.class);
+	
+	private final ConfigManager configManager;
+	private final PrintStream out;
+	
+	private File presetsFile = null;
+	private File sourceDirectory = null;
+	private File targetDirectory = null;
+	private List<String> resolutions = null;
+	private List<String> outputFormats = null;
+	private String outputFileType = null;
+	private int stories = 1;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	
+	public BatchRenderer(ConfigManager configManager, PrintStream out) {
+		this.configManager = configManager;
+		this.out = out;
+	}
+	
+	public static void printUsage(PrintStream out) {
+		out.println("Usage: wallgen --presets <file> --source <directory> --target <directory> [options]");
+		out.println();
+		out.println("  --presets <file>          presets file saved from the application");
+		out.println("  --source <directory>      directory of source images (jpg, jpeg, gif, bmp, png)");
+		out.println("  --target <directory>      directory the walls are written to");
+		out.println("  --resolutions <list>      comma separated resolutions, e.g. 640x480,1024x768");
+		out.println("                            (default: the resolution in the presets file)");
+		out.println("  --output-formats <list>   comma separated output formats, e.g. \"DC Standard,DC Hyper\"");
+		out.println("                            (default: the output format in the presets file)");
+		out.println("  --file-type <type>        output file type, e.g. PNG (default: from the presets file)");
+		out.println("  --stories <n>             number of vertically tiled stories (default: 1)");
+		out.println("  --workers <n>             number of textures rendered at once (default: number of processors)");
+		out.println("  --cache <directory>       keep generated views on disk and reuse them on later runs of this build");
+		out.println();
+		out.println("Run with -D" + StageEvent.ENABLED_PROPERTY + "=true to log the time and memory taken by each stage.");
+	}
+	
+	public int run(String[] args) throws Exception {
+		if (Arrays.asList(args).contains("--help")) {
+			printUsage(out);
+			return 0;
+		}
+		if (!parseArguments(args)) {
+			printUsage(out);
+			return 1;
+		}
+		
+		final Presets presets = new SettingsDeserializer().readPresets(presetsFile);
+		final PostProcessingConfig postProcessingConfig = presets.createPostProcessingConfig(
+				configManager.getColor(ConfigManager.DISTANCE_BLENDING_COLOR_KEY));
+		
+		if (resolutions == null) {
+			resolutions = Arrays.asList(presets.getResolution());
+		}
+		if (outputFormats == null) {
+			outputFormats = Arrays.asList(presets.getOutputFormat());
+		}
+		if (outputFileType == null) {
+			outputFileType = presets.getOutputFileType();
+		}
+		if (!validateSelections()) {
+			return 1;
+		}
+		
+		final boolean useTransparency = presets.isUseTransparency() 
+				&& configManager.getOutputFileConfig(outputFileType).isSupportsTransparency();
+		
+		final List<File> sourceFiles = listSourceFiles();
+		if (!validateSourceNames(sourceFiles)) {
+			return 1;
+		}
+		log.info("Rendering " + sourceFiles.size() + " textures with " + workers + " workers");
+		
+		final AtomicInteger renderedTextures = new AtomicInteger();
+		final AtomicInteger failedTextures = new AtomicInteger();
+		final AtomicInteger writtenFiles = new AtomicInteger();
+		final long startTime = System.nanoTime();
+		
+		final ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			final List<Future<?>> futures = new ArrayList<Future<?>>();
+			for(final File sourceFile : sourceFiles) {
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							writtenFiles.addAndGet(renderTexture(sourceFile, postProcessingConfig, useTransparency));
+							renderedTextures.incrementAndGet();
+						} catch (Exception e) {
+							log.error("Error rendering " + sourceFile.getAbsolutePath(), e);
+							out.println("FAILED: " + sourceFile.getAbsolutePath() + " (" + e + ")");
+							failedTextures.incrementAndGet();
+						}
+					}
+				}));
+			}
+			for(Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		
+		final double elapsedSeconds = (System.nanoTime() - startTime) / 1000000000.0;
+		out.println(String.format(Locale.US, 
+				"Rendered %d textures (%d failed) into %d files in %.1f s: %.2f textures/s, %.2f files/s", 
+				renderedTextures.get(), 
+				failedTextures.get(), 
+				writtenFiles.get(), 
+				elapsedSeconds, 
+				renderedTextures.get() / Math.max(elapsedSeconds, 0.001), 
+				writtenFiles.get() / Math.max(elapsedSeconds, 0.001)));
+		out.println(WallGenerator.getViewCache().getStatistics());
+		if (StageEvent.isEnabled()) {
+			out.println(StageEvent.getSummary());
+		}
+		
+		return failedTextures.get() == 0 ? 0 : 1;
+	}
+	
+	private int renderTexture(File sourceFile, PostProcessingConfig postProcessingConfig, boolean useTransparency) throws Exception {
+		final FileSelectionConfig fileSelectionConfig = new FileSelectionConfig();
+		fileSelectionConfig.setFirstStorySourceFile(sourceFile);
+		fileSelectionConfig.setStories(stories);
+		fileSelectionConfig.setStoryMethod("Tiled");
+		
+		final String fileBaseName = FilenameUtils.getBaseName(sourceFile.getName());
+		int writtenFiles = 0;
+		
+		for(String resolution : resolutions) {
+			final List<Map<String, BufferedImage>> images = new WallGenerationService().fetchImages(fileSelectionConfig, postProcessingConfig, resolution);
+			final Config config = configManager.getConfig(resolution);
+			
+			for(String outputFormat : outputFormats) {
+				final OutputConfig outputConfig = config.getOutputConfig(outputFormat);
+				final File outputDirectory = new File(new File(targetDirectory, resolution), outputFormat.replace(' ', '_'));
+				if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs() && !outputDirectory.isDirectory()) {
+					throw new IllegalStateException("Unable to create directory " + outputDirectory.getAbsolutePath());
+				}
+				
+				writtenFiles += new OutputGeneratorFactory()
+					.createOutputGenerator(outputConfig)
+					.generate(outputConfig, outputDirectory, fileBaseName, outputFileType, images, useTransparency);
+			}
+		}
+		
+		log.info("Rendered " + sourceFile.getAbsolutePath());
+		return writtenFiles;
+	}
+	
+	private List<File> listSourceFiles() {
+		final ImageIOSupportedImageTypeFileFilter fileFilter = new ImageIOSupportedImageTypeFileFilter();
+		final List<File> sourceFiles = new ArrayList<File>();
+		final File[] files = sourceDirectory.listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for(File file : files) {
+				if (file.isFile() && fileFilter.accept(file)) {
+					sourceFiles.add(file);
+				}
+			}
+		}
+		return sourceFiles;
+	}
+	
+	/* Outputs are named after the source without its extension, so a.png and a.jpg would write the same files */
+	private boolean validateSourceNames(List<File> sourceFiles) {
+		final Map<String, File> outputNames = new HashMap<String, File>();
+		boolean valid = true;
+		for(File sourceFile : sourceFiles) {
+			final String outputName = FilenameUtils.getBaseName(sourceFile.getName()).replace(' ', '_').toLowerCase(Locale.US);
+			final File otherFile = outputNames.put(outputName, sourceFile);
+			if (otherFile != null) {
+				out.println("Source images " + otherFile.getName() + " and " + sourceFile.getName() + " would be written to the same files; rename one of them");
+				valid = false;
+			}
+		}
+		return valid;
+	}
+	
+	private boolean validateSelections() {
+		if (configManager.getOutputFileConfig(outputFileType) == null) {
+			out.println("Unknown or disabled file type: " + outputFileType);
+			return false;
+		}
+		for(String resolution : resolutions) {
+			final Config config = configManager.getConfig(resolution);
+			if (config == null) {
+				out.println("Unknown resolution: " + resolution);
+				return false;
+			}
+			for(String outputFormat : outputFormats) {
+				final OutputConfig outputConfig = config.getOutputConfig(outputFormat);
+				if (outputConfig == null) {
+					out.println("Output format " + outputFormat + " is not available at " + resolution);
+					return false;
+				}
+				if (stories > 1 && !outputConfig.isSupportsMultiStory()) {
+					out.println("Output format " + outputFormat + " does not support multiple stories");
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	private boolean parseArguments(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			final String argument = args[i];
+			if (i + 1 >= args.length) {
+				out.println("Missing value for " + argument);
+				return false;
+			}
+			final String value = args[++i];
+			
+			if ("--presets".equals(argument)) {
+				presetsFile = new File(value);
+			} else if ("--source".equals(argument)) {
+				sourceDirectory = new File(value);
+			} else if ("--target".equals(argument)) {
+				targetDirectory = new File(value);
+			} else if ("--resolutions".equals(argument)) {
+				resolutions = splitList(value);
+			} else if ("--output-formats".equals(argument)) {
+				outputFormats = splitList(value);
+			} else if ("--file-type".equals(argument)) {
+				outputFileType = value.toUpperCase(Locale.US);
+			} else if ("--stories".equals(argument)) {
+				final Integer parsedStories = parseNumber(argument, value);
+				if (parsedStories == null) {
+					return false;
+				}
+				stories = parsedStories;
+			} else if ("--workers".equals(argument)) {
+				final Integer parsedWorkers = parseNumber(argument, value);
+				if (parsedWorkers == null) {
+					return false;
+				}
+				workers = parsedWorkers;
+			} else if ("--cache".equals(argument)) {
+				WallGenerator.getViewCache().setDirectory(new File(value));
+			} else {
+				out.println("Unknown argument: " + argument);
+				return false;
+			}
+		}
+		
+		if (presetsFile == null || !presetsFile.canRead()) {
+			out.println("A readable presets file is required");
+			return false;
+		}
+		if (sourceDirectory == null || !sourceDirectory.isDirectory()) {
+			out.println("A source directory is required");
+			return false;
+		}
+		if (targetDirectory == null) {
+			out.println("A target directory is required");
+			return false;
+		}
+		if (stories < 1 || stories > 3) {
+			out.println("Stories must be between 1 and 3");
+			return false;
+		}
+		if (workers < 1) {
+			out.println("Workers must be at least 1");
+			return false;
+		}
+		return true;
+	}
+	
+	private Integer parseNumber(String argument, String value) {
+		try {
+			return Integer.valueOf(value.trim());
+		} catch (NumberFormatException e) {
+			out.println("Invalid number for " + argument + ": " + value);
+			return null;
+		}
+	}
+	
+	private List<String> splitList(String value) {
+		final List<String> values = new ArrayList<String>();
+		for(String item : value.split(",")) {
+			if (item.trim().length() > 0) {
+				values.add(item.trim());
+			}
+		}
+		return values;
+	}
+}
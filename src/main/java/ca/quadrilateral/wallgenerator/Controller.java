@@ -31,14 +31,20 @@ package ca.quadrilateral.wallgenerator;
 import java.awt.RenderingHints;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JOptionPane;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -49,9 +55,11 @@ import ca.quadrilateral.wallgenerator.config.ConfigManager;
 import ca.quadrilateral.wallgenerator.config.FileSelectionConfig;
 import ca.quadrilateral.wallgenerator.config.OutputConfig;
 import ca.quadrilateral.wallgenerator.config.PostProcessingConfig;
+import ca.quadrilateral.wallgenerator.image.Cancellation;
 import ca.quadrilateral.wallgenerator.settings.SettingsDeserializer;
 import ca.quadrilateral.wallgenerator.settings.SettingsSerializer;
 import ca.quadrilateral.wallgenerator.ui.FileChooserPanel;
+import ca.quadrilateral.wallgenerator.ui.LivePreviewDialog;
 import ca.quadrilateral.wallgenerator.ui.OptionPanel;
 import ca.quadrilateral.wallgenerator.ui.PreviewDialog;
 import ca.quadrilateral.wallgenerator.ui.WallGeneratorFrame;
@@ -65,12 +73,20 @@ public class Controller {
 	public static final String LOAD_PRESETS_FILE_KEY = "LOAD_PRESETS_FILE";
 	public static final String SAVE_PRESENTS_FILE_AS_DEFAULT_KEY = "SAVE_PRESETS_FILE_AS_DEFAULT";
 
+	private static final int LIVE_PREVIEW_DELAY = 300;
+
 
 	private final FileChooserPanel fileChooserPanel;
 	private final OptionPanel optionPanel;
 	private final WallGeneratorFrame wallGeneratorFrame;
 
 	private List<Map<String, BufferedImage>> generatedImages = null;
+	private int generatedImagesVersion = 0;
+	private GenerationWorker<?> currentWorker = null;
+
+	private final Timer livePreviewTimer;
+	private LivePreviewDialog livePreviewDialog = null;
+	private LivePreviewWorker livePreviewWorker = null;
 
 	private ConfigManager configManager = null;
 	private PostProcessingConfig baselinePostProcessingConfig = new PostProcessingConfig();
@@ -84,11 +100,21 @@ public class Controller {
 		this.optionPanel.addChangeGenerationSettingsListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				clearGeneratedImages();
+				if (!OptionPanel.OUTPUT_SETTINGS_CHANGED_COMMAND.equals(e.getActionCommand())) {
+					clearGeneratedImages();
+					scheduleLivePreview();
+				}
 				updateCurrentGenerationValuesInFileChooserPanel();
 			}
 		});
 
+		this.optionPanel.addLivePreviewActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				setLivePreviewVisible(optionPanel.isLivePreviewEnabled());
+			}
+		});
+
 		this.optionPanel.addOptionPanelEventListener(new OptionPanelEventListener() {
 
 			@Override
@@ -151,66 +177,52 @@ public class Controller {
 
 			@Override
 			public void requestGeneratePreview(OptionPanelEvent event) {
-				try {
-					if (validateSourceFile(true)) {
-						final BufferedImage previewImage = generatePreview();
-						final PreviewDialog previewDialog = new PreviewDialog(previewImage, wallGeneratorFrame);
-						previewDialog.setVisible(true);
-					}
-				} catch (FileNotFoundException fnfe) {
-					log.error("Error generating preview", fnfe);
-					JOptionPane.showMessageDialog(wallGeneratorFrame, "Source image could not be found!", "Source Image Error", JOptionPane.ERROR_MESSAGE);
-				} catch (IOException ioe) {
-					log.error("Error generating preview", ioe);
-					JOptionPane.showMessageDialog(wallGeneratorFrame, "IO error generating images.  Check file permissions", "IO Error", JOptionPane.ERROR_MESSAGE);
-				} catch (ArrayIndexOutOfBoundsException iob) {
-					log.error("ArrayIndexOutOfBoundsException generating preview images", iob);
-					JOptionPane.showMessageDialog(wallGeneratorFrame, "The source image could not be scaled.  This may occur for very small images.  Try a different source image or scaling method.", "Error", JOptionPane.ERROR_MESSAGE);
-				} catch (Exception ex) {
-					log.error("Error generating preview", ex);
-					throw new RuntimeException(ex);
+				if (validateSourceFile(true)) {
+					startGeneration(new GenerationWorker<BufferedImage>("Generating preview", 0) {
+						@Override
+						protected BufferedImage generate(List<Map<String, BufferedImage>> images) throws IOException {
+							return new PreviewGenerationService().generatePreview(images);
+						}
+
+						@Override
+						protected void succeeded(BufferedImage previewImage) {
+							final PreviewDialog previewDialog = new PreviewDialog(previewImage, wallGeneratorFrame);
+							previewDialog.setVisible(true);
+						}
+
+						@Override
+						protected void failed(Throwable cause) {
+							if (!showGenerationError(cause, "preview")) {
+								log.error("Error generating preview", cause);
+								throw new RuntimeException(cause);
+							}
+						}
+					});
 				}
 			}
 
 			@Override
 			public void requestGenerateWalls(OptionPanelEvent event) {
-				try {
-					if (StringUtils.isBlank(fileChooserPanel.outputFileNameBase())) {
-						JOptionPane.showMessageDialog(wallGeneratorFrame, "No base output file name specified!", "Target Image Error", JOptionPane.ERROR_MESSAGE);
-					} else {
-						if (validateSourceFile(true)) {
-							FileSelectionConfig fileSelectionConfig = fileChooserPanel.getFileSelectionConfig();
-							String selectedOutputType = optionPanel.getSelectedOutputType();
-							String resolution = optionPanel.getSelectedResolution();
-							if (fileSelectionConfig.getStories() > 1) {
-								if (!WallGenerator
-										.getConfigManager()
-										.getConfig(resolution)
-										.getOutputConfig(selectedOutputType)
-										.isSupportsMultiStory()) {
-									JOptionPane.showMessageDialog(wallGeneratorFrame, "The selected output configuration does not support multiple stories!", "Multi-Story Not Supported", JOptionPane.WARNING_MESSAGE);
-									return;
-								}
+				if (StringUtils.isBlank(fileChooserPanel.outputFileNameBase())) {
+					JOptionPane.showMessageDialog(wallGeneratorFrame, "No base output file name specified!", "Target Image Error", JOptionPane.ERROR_MESSAGE);
+				} else {
+					if (validateSourceFile(true)) {
+						FileSelectionConfig fileSelectionConfig = fileChooserPanel.getFileSelectionConfig();
+						String selectedOutputType = optionPanel.getSelectedOutputType();
+						String resolution = optionPanel.getSelectedResolution();
+						if (fileSelectionConfig.getStories() > 1) {
+							if (!WallGenerator
+									.getConfigManager()
+									.getConfig(resolution)
+									.getOutputConfig(selectedOutputType)
+									.isSupportsMultiStory()) {
+								JOptionPane.showMessageDialog(wallGeneratorFrame, "The selected output configuration does not support multiple stories!", "Multi-Story Not Supported", JOptionPane.WARNING_MESSAGE);
+								return;
 							}
-							generateOutput();
-							JOptionPane.showMessageDialog(wallGeneratorFrame, "Generation Completed!", "Complete", JOptionPane.INFORMATION_MESSAGE);
 						}
+						startGeneration(createOutputWorker());
 					}
-				} catch (FileNotFoundException fnfe) {
-					log.error("Error generating output", fnfe);
-					JOptionPane.showMessageDialog(wallGeneratorFrame, "Source image could not be found!", "Source Image Error", JOptionPane.ERROR_MESSAGE);
-				} catch (IOException ioe) {
-					log.error("Error generating output", ioe);
-					JOptionPane.showMessageDialog(wallGeneratorFrame, "IO error generating images.  Check file permissions", "IO Error", JOptionPane.ERROR_MESSAGE);
-				} catch (ArrayIndexOutOfBoundsException iob) {
-					log.error("ArrayIndexOutOfBoundsException generating output images", iob);
-					JOptionPane.showMessageDialog(wallGeneratorFrame, "The source image could not be scaled.  This may occur for very small images.  Try a different source image or scaling method.", "Error", JOptionPane.ERROR_MESSAGE);
-				} catch (Exception ex) {
-					log.error("Error generating output", ex);
-					JOptionPane.showMessageDialog(wallGeneratorFrame, "An unanticipated error has ocurred.  See log file for details", "Error", JOptionPane.ERROR_MESSAGE);
 				}
-
-
 			}
 		});
 
@@ -218,14 +230,33 @@ public class Controller {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				clearGeneratedImages();
+				scheduleLivePreview();
+			}
+		});
+
+		this.livePreviewTimer = new Timer(LIVE_PREVIEW_DELAY, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				startLivePreview();
 			}
 		});
+		this.livePreviewTimer.setRepeats(false);
 
 		baselinePostProcessingConfig.nearDarkening = 0f;
 		baselinePostProcessingConfig.farDarkening = 0f;
 		baselinePostProcessingConfig.softening = 0f;
 		baselinePostProcessingConfig.scalingMethod = RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
 
+		this.wallGeneratorFrame.getGenerationProgressPanel().addCancelListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (currentWorker != null) {
+					log.info("Cancelling generation");
+					currentWorker.cancelGeneration();
+				}
+			}
+		});
+
 		updateCurrentGenerationValuesInFileChooserPanel();
 	}
 	
@@ -270,43 +301,276 @@ public class Controller {
 		fileChooserPanel.setCurrentOutputFormat(optionPanel.getSelectedOutputType());    	
 	}
 
-	public void generateOutput() throws FileNotFoundException, IOException {
-		if (!hasImages()) {
-			this.generatedImages = new WallGenerationService().fetchImages(
-					fileChooserPanel.getFileSelectionConfig(), 
-					optionPanel.getPostProcessingConfig(), 
-					optionPanel.getSelectedResolution());
-		}
-
+	private GenerationWorker<Void> createOutputWorker() {
 		final Config config = this.configManager.getConfig(this.optionPanel.getSelectedResolution());
 		final OutputConfig outputConfig = config.getOutputConfig(optionPanel.getSelectedOutputType());
+		final File targetDirectory = fileChooserPanel.getTargetDirectory();
+		final String fileBaseName = fileChooserPanel.outputFileNameBase();
+		final String fileType = optionPanel.getSelectedFileType();
+		final boolean useTransparency = optionPanel.useTransparency();
+
+		return new GenerationWorker<Void>("Generating walls", 1) {
+			@Override
+			protected Void generate(List<Map<String, BufferedImage>> images) throws IOException {
+				progressToOutput("Writing output");
+				final OutputGenerator generator = new OutputGeneratorFactory().createOutputGenerator(outputConfig);
+				generator.generate(
+						outputConfig, 
+						targetDirectory, 
+						fileBaseName, 
+						fileType, 
+						images,
+						useTransparency);
+				return null;
+			}
+
+			@Override
+			protected void succeeded(Void result) {
+				JOptionPane.showMessageDialog(wallGeneratorFrame, "Generation Completed!", "Complete", JOptionPane.INFORMATION_MESSAGE);
+			}
+
+			@Override
+			protected void failed(Throwable cause) {
+				if (!showGenerationError(cause, "output")) {
+					log.error("Error generating output", cause);
+					JOptionPane.showMessageDialog(wallGeneratorFrame, "An unanticipated error has ocurred.  See log file for details", "Error", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		};
+	}
+
+	/* A newer request replaces the running one instead of waiting for it */
+	private void startGeneration(GenerationWorker<?> worker) {
+		if (currentWorker != null) {
+			log.info("Superseding running generation");
+			currentWorker.cancelGeneration();
+		}
+		currentWorker = worker;
+		wallGeneratorFrame.getGenerationProgressPanel().start(worker.getDescription());
+		worker.execute();
+	}
 
-		final OutputGenerator generator = new OutputGeneratorFactory().createOutputGenerator(outputConfig);
-		generator.generate(
-				outputConfig, 
-				fileChooserPanel.getTargetDirectory(), 
-				fileChooserPanel.outputFileNameBase(), 
-				optionPanel.getSelectedFileType(), 
-				this.generatedImages,
-				optionPanel.useTransparency());
+	private void setLivePreviewVisible(boolean visible) {
+		if (visible) {
+			if (livePreviewDialog == null) {
+				livePreviewDialog = new LivePreviewDialog(wallGeneratorFrame);
+				livePreviewDialog.addWindowListener(new WindowAdapter() {
+					@Override
+					public void windowClosing(WindowEvent e) {
+						optionPanel.setLivePreviewEnabled(false);
+						setLivePreviewVisible(false);
+					}
+				});
+			}
+			livePreviewDialog.setVisible(true);
+			scheduleLivePreview();
+		} else {
+			livePreviewTimer.stop();
+			cancelLivePreview();
+			if (livePreviewDialog != null) {
+				livePreviewDialog.setVisible(false);
+			}
+		}
 	}
 
-	public BufferedImage generatePreview() throws FileNotFoundException, IOException {    	
-		if (!hasImages()) {
-			this.generatedImages = new WallGenerationService().fetchImages(
-					fileChooserPanel.getFileSelectionConfig(), 
-					optionPanel.getPostProcessingConfig(), 
-					optionPanel.getSelectedResolution());
+	/*
+	 * Settings changes restart the delay, so dragging a spinner only renders once it settles.  A
+	 * render already running for older settings is cancelled straight away.
+	 */
+	private void scheduleLivePreview() {
+		if (livePreviewDialog == null || !livePreviewDialog.isVisible()) {
+			return;
 		}
+		cancelLivePreview();
+		livePreviewDialog.setStatus("Waiting for changes to settle...");
+		livePreviewTimer.restart();
+	}
 
-		return new PreviewGenerationService().generatePreview(this.generatedImages);
+	private void startLivePreview() {
+		if (livePreviewDialog == null || !livePreviewDialog.isVisible()) {
+			return;
+		}
+		if (!validateSourceFile(false)) {
+			livePreviewDialog.setStatus("Select a source image to see a preview.");
+			return;
+		}
+		cancelLivePreview();
+		livePreviewDialog.setStatus("Rendering...");
+		livePreviewWorker = new LivePreviewWorker();
+		livePreviewWorker.execute();
 	}
 
-	private boolean hasImages() {
-		return this.generatedImages != null;
+	private void cancelLivePreview() {
+		if (livePreviewWorker != null) {
+			livePreviewWorker.cancelPreview();
+			livePreviewWorker = null;
+		}
+	}
+
+	private boolean showGenerationError(Throwable cause, String description) {
+		if (cause instanceof FileNotFoundException) {
+			log.error("Error generating " + description, cause);
+			JOptionPane.showMessageDialog(wallGeneratorFrame, "Source image could not be found!", "Source Image Error", JOptionPane.ERROR_MESSAGE);
+		} else if (cause instanceof IOException) {
+			log.error("Error generating " + description, cause);
+			JOptionPane.showMessageDialog(wallGeneratorFrame, "IO error generating images.  Check file permissions", "IO Error", JOptionPane.ERROR_MESSAGE);
+		} else if (cause instanceof ArrayIndexOutOfBoundsException) {
+			log.error("ArrayIndexOutOfBoundsException generating " + description + " images", cause);
+			JOptionPane.showMessageDialog(wallGeneratorFrame, "The source image could not be scaled.  This may occur for very small images.  Try a different source image or scaling method.", "Error", JOptionPane.ERROR_MESSAGE);
+		} else {
+			return false;
+		}
+		return true;
 	}
 
 	public void clearGeneratedImages() {
 		this.generatedImages = null;
+		this.generatedImagesVersion++;
+	}
+
+	/*
+	 * Runs a generation off the event dispatch thread.  Everything it needs from the UI is read when
+	 * it is created, on the EDT; the generated images are only stored back if no settings changed in
+	 * the meantime.  Results and errors are handed to succeeded and failed on the EDT, and nothing is
+	 * reported for a worker that was cancelled or superseded.
+	 */
+	private abstract class GenerationWorker<T> extends SwingWorker<T, String> implements ProgressListener {
+		private final Cancellation cancellation = new Cancellation();
+		private final String description;
+		private final int outputSteps;
+		private final FileSelectionConfig fileSelectionConfig = fileChooserPanel.getFileSelectionConfig();
+		private final PostProcessingConfig postProcessingConfig = optionPanel.getPostProcessingConfig();
+		private final String resolution = optionPanel.getSelectedResolution();
+		private final int imagesVersion = generatedImagesVersion;
+		private volatile List<Map<String, BufferedImage>> images = generatedImages;
+		private volatile int generationSteps = 0;
+
+		GenerationWorker(String description, int outputSteps) {
+			this.description = description;
+			this.outputSteps = outputSteps;
+		}
+
+		protected abstract T generate(List<Map<String, BufferedImage>> images) throws IOException;
+
+		protected abstract void succeeded(T result);
+
+		protected abstract void failed(Throwable cause);
+
+		String getDescription() {
+			return description;
+		}
+
+		void cancelGeneration() {
+			cancellation.cancel();
+			cancel(false);
+		}
+
+		@Override
+		protected final T doInBackground() throws Exception {
+			final Cancellation previous = Cancellation.install(cancellation);
+			try {
+				if (images == null) {
+					images = new WallGenerationService().fetchImages(fileSelectionConfig, postProcessingConfig, resolution, this);
+				}
+				Cancellation.checkCurrent();
+				return generate(images);
+			} finally {
+				Cancellation.install(previous);
+			}
+		}
+
+		@Override
+		public void progress(String stage, int completedSteps, int totalSteps) {
+			generationSteps = totalSteps;
+			setProgress(Math.min(100, (completedSteps * 100) / (totalSteps + outputSteps)));
+			publish(stage);
+		}
+
+		protected void progressToOutput(String stage) {
+			progress(stage, generationSteps, generationSteps);
+		}
+
+		@Override
+		protected void process(List<String> stages) {
+			if (currentWorker == this) {
+				wallGeneratorFrame.getGenerationProgressPanel().setProgress(stages.get(stages.size() - 1), getProgress());
+			}
+		}
+
+		@Override
+		protected final void done() {
+			if (currentWorker != this) {
+				return;
+			}
+			currentWorker = null;
+			wallGeneratorFrame.getGenerationProgressPanel().finish();
+
+			if (cancellation.isCancelled()) {
+				log.info(description + " cancelled");
+				return;
+			}
+			if (images != null && imagesVersion == generatedImagesVersion) {
+				generatedImages = images;
+			}
+
+			try {
+				succeeded(get());
+			} catch (ExecutionException e) {
+				if (!(e.getCause() instanceof CancellationException)) {
+					failed(e.getCause());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/*
+	 * Renders only the first story so a live preview costs a single pass through the generator
+	 * whatever the number of stories.  Results go through the view cache, so generating the walls
+	 * with the same settings afterwards does not repeat the work.
+	 */
+	private class LivePreviewWorker extends SwingWorker<BufferedImage, Void> {
+		private final Cancellation cancellation = new Cancellation();
+		private final FileSelectionConfig fileSelectionConfig = fileChooserPanel.getFileSelectionConfig();
+		private final PostProcessingConfig postProcessingConfig = optionPanel.getPostProcessingConfig();
+		private final String resolution = optionPanel.getSelectedResolution();
+
+		void cancelPreview() {
+			cancellation.cancel();
+			cancel(false);
+		}
+
+		@Override
+		protected BufferedImage doInBackground() throws Exception {
+			final Cancellation previous = Cancellation.install(cancellation);
+			try {
+				final List<Map<String, BufferedImage>> images = new WallGenerationService().fetchFirstStoryImages(fileSelectionConfig, postProcessingConfig, resolution);
+				Cancellation.checkCurrent();
+				return new PreviewGenerationService().generatePreview(images);
+			} finally {
+				Cancellation.install(previous);
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (livePreviewWorker != this || cancellation.isCancelled()) {
+				return;
+			}
+			livePreviewWorker = null;
+
+			try {
+				livePreviewDialog.setImage(get());
+				livePreviewDialog.setStatus(fileSelectionConfig.getStories() > 1 ? "Showing the first story" : " ");
+			} catch (ExecutionException e) {
+				if (!(e.getCause() instanceof CancellationException)) {
+					log.error("Error generating live preview", e.getCause());
+					livePreviewDialog.setStatus("The preview could not be generated.  See log file for details");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 	}
 }
@@ -28,25 +28,28 @@ or implied, of Daniel Morton.
 
 package ca.quadrilateral.wallgenerator;
 
-import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.ConvolveOp;
 import java.awt.image.Kernel;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-
-import javax.media.jai.PerspectiveTransform;
+import java.util.concurrent.RecursiveTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ca.quadrilateral.wallgenerator.config.Config;
 import ca.quadrilateral.wallgenerator.config.PostProcessingConfig;
+import ca.quadrilateral.wallgenerator.image.ArgbRaster;
+import ca.quadrilateral.wallgenerator.image.BandedConvolution;
+import ca.quadrilateral.wallgenerator.image.Cancellation;
+import ca.quadrilateral.wallgenerator.image.CoverageSpans;
+import ca.quadrilateral.wallgenerator.image.DistanceBlend;
+import ca.quadrilateral.wallgenerator.image.RowBands;
+import ca.quadrilateral.wallgenerator.image.WarpTable;
 
 import com.mortennobel.imagescaling.AdvancedResizeOp;
 import com.mortennobel.imagescaling.AdvancedResizeOp.UnsharpenMask;
@@ -56,224 +59,345 @@ import com.mortennobel.imagescaling.ResampleOp;
 public class Generator {
 	private static final Logger log = LoggerFactory.getLogger(Generator.class);
 	private static final float ZERO_PERCENT_THRESHOLD = 0.009f;
-	private static final PostProcessingConfig noOpPostProcessingConfig = new PostProcessingConfig();
-	
-	static {
-		noOpPostProcessingConfig.distanceBlendColor = Color.BLACK;
-		noOpPostProcessingConfig.farDarkening = 0f;
-		noOpPostProcessingConfig.nearDarkening = 0f;
-		noOpPostProcessingConfig.postProcessingOrder = 0;
-		noOpPostProcessingConfig.scalingMethod = RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
-		noOpPostProcessingConfig.softening = 0f;
-		noOpPostProcessingConfig.unsharpenMask = UnsharpenMask.None;
-	}
 	
     private final Config config;
-    private final Map<String, BufferedImage> stackingBaselines;    
-
-    private PostProcessingConfig postProcessingConfig;
+    private final PostProcessingConfig postProcessingConfig;
+    private final StageCache stageCache;
     
     public Generator(Config config, PostProcessingConfig postProcessingConfig) {
+        this(config, postProcessingConfig, null);
+    }
+
+    /* Intermediate stages are looked up in and added to the stage cache when one is given */
+    public Generator(Config config, PostProcessingConfig postProcessingConfig, StageCache stageCache) {
         this.config = config;
-        
-        this.postProcessingConfig = noOpPostProcessingConfig;
-        
-        this.stackingBaselines = generate(generateBaselineSourceImage(), 1);
-        
         this.postProcessingConfig = postProcessingConfig;
+        this.stageCache = stageCache;
     }
-    
-    private final BufferedImage generateBaselineSourceImage() {
-    	final Dimension wallSize = config.getWallSize("CloseFront");
-    	final BufferedImage baselineSourceImage = new BufferedImage(wallSize.width, wallSize.height, BufferedImage.TYPE_INT_ARGB);
-    	final Graphics2D graphics = baselineSourceImage.createGraphics();
-    	graphics.setColor(Color.BLACK);
-    	graphics.fillRect(0, 0, wallSize.width, wallSize.height);
-    	
-    	graphics.dispose();
-    	
-    	return baselineSourceImage;
+
+    public final Map<String, BufferedImage> generate(final BufferedImage baseSourceImage, final int story, final int storiesForSingleImage) {
+        final StageEvent event = StageEvent.begin("Generate", config.getResolution(), null, story);
+        final Cancellation cancellation = Cancellation.getCurrent();
+        final Map<String, BufferedImage> resultMap = RowBands.invoke(new RecursiveTask<Map<String, BufferedImage>>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected Map<String, BufferedImage> compute() {
+                final Cancellation previous = Cancellation.install(cancellation);
+                try {
+                    return generateViews(baseSourceImage, story, storiesForSingleImage);
+                } finally {
+                    Cancellation.install(previous);
+                }
+            }
+        });
+
+        final Map<String, BufferedImage> storyImages = story > 1 ? generateStoryImages(resultMap, story) : resultMap;
+        StageEvent.end(event, storyImages.get("CloseFront"));
+        return storyImages;
     }
 
-    public final Map<String, BufferedImage> generate(BufferedImage baseSourceImage, int story, int storiesForSingleImage) {
+    private Map<String, BufferedImage> generateViews(BufferedImage baseSourceImage, int story, int storiesForSingleImage) {
         final Map<String, BufferedImage> resultMap = new HashMap<String, BufferedImage>();
 
         final Color blendColor = this.postProcessingConfig.distanceBlendColor;
+        final float nearDarkening = (float)postProcessingConfig.nearDarkening;
+        final float farDarkening = (float)postProcessingConfig.farDarkening;
+
+        /* Tiled stories share one set of unstacked views, so every story after the first only stacks */
+        final String viewStageKey = createViewStageKey(baseSourceImage, story, storiesForSingleImage);
+        final Map<String, BufferedImage> cachedViews = getCachedStage(viewStageKey);
+        if (cachedViews != null) {
+        	resultMap.putAll(cachedViews);
+        	return resultMap;
+        }
         
-        BufferedImage sourceImage = baseSourceImage;
-        
-        if (storiesForSingleImage > 1) {
-        	final Dimension wallSize = config.getWallSize("CloseFront");
-        	int largeSourceHeight = wallSize.height * storiesForSingleImage;
-        	final BufferedImage largeSourceImage = scaleImage(baseSourceImage, new Dimension(wallSize.width, largeSourceHeight));
-        	sourceImage = largeSourceImage.getSubimage(0, (( (storiesForSingleImage - 1) - (story - 1)) * wallSize.height), wallSize.width, wallSize.height);
+        final String scaledStageKey = createScaledStageKey(baseSourceImage, story, storiesForSingleImage);
+        Map<String, BufferedImage> scaledImages = getCachedStage(scaledStageKey);
+        if (scaledImages == null) {
+        	scaledImages = scaleFronts(baseSourceImage, story, storiesForSingleImage);
+        	putCachedStage(scaledStageKey, scaledImages);
         }
         
-        final BufferedImage baseImage = scaleImage(sourceImage, "CloseFront");
+        final BufferedImage baseImage = scaledImages.get("CloseFront");
+        final BufferedImage nearByFrontScaled = scaledImages.get("NearFront");
+        final BufferedImage nearByFrontOriginal = scaledImages.get("NearFrontArgb");
+        final BufferedImage farFrontScaled = scaledImages.get("FarFront");
+
+        /* The close sides are only warped, so they survive any darkening or blend colour change */
+        final String closeSideStageKey = scaledStageKey + "|CloseSides";
+        final Map<String, BufferedImage> cachedCloseSides = getCachedStage(closeSideStageKey);
+        ImageTask closeLeftTask = null;
+        ImageTask closeRightTask = null;
+        if (cachedCloseSides == null) {
+            final BufferedImage baseImageRightHalf = baseImage.getSubimage(baseImage.getWidth() / 2, 0, baseImage.getWidth() / 2, baseImage.getHeight());
+            final BufferedImage baseImageLeftHalf = baseImage.getSubimage(0, 0, baseImage.getWidth() / 2, baseImage.getHeight());
+
+            closeLeftTask = fork(new ImageTask("Warp", "CloseLeft", story) {
+                @Override
+                protected BufferedImage generateImage() {
+                    return generateTransformedImage(baseImageRightHalf, "CloseSide", "CloseLeft");
+                }
+            });
 
-        resultMap.put("CloseFront", baseImage);
+            closeRightTask = fork(new ImageTask("Warp", "CloseRight", story) {
+                @Override
+                protected BufferedImage generateImage() {
+                    return generateTransformedImage(baseImageLeftHalf, "CloseSide", "CloseRight");
+                }
+            });
+        }
 
-        final Dimension closeFrontSideSize = config.getWallSize("CloseFrontSide");
-        final Dimension nearFrontSideSize = config.getWallSize("NearFrontSide");
+        final ImageTask nearLeftTask = fork(new ImageTask("Warp", "NearLeft", story) {
+            @Override
+            protected BufferedImage generateImage() {
+                return generateTransformedImage(baseImage, "NearSide", "NearLeft", getDistanceBlend(baseImage, 0f, nearDarkening, true, blendColor));
+            }
+        });
 
-        final BufferedImage baseImageRightHalf = baseImage.getSubimage(baseImage.getWidth() / 2, 0, baseImage.getWidth() / 2, baseImage.getHeight());
-        final BufferedImage closeFrontRight = baseImage.getSubimage(baseImage.getWidth() - closeFrontSideSize.width, 0, closeFrontSideSize.width, baseImage.getHeight());
+        final ImageTask nearRightTask = fork(new ImageTask("Warp", "NearRight", story) {
+            @Override
+            protected BufferedImage generateImage() {
+                return generateTransformedImage(baseImage, "NearSide", "NearRight", getDistanceBlend(baseImage, 0f, nearDarkening, false, blendColor));
+            }
+        });
 
-        resultMap.put("CloseFrontRight", closeFrontRight);
+        final ImageTask farLeftTask = fork(new ImageTask("Warp", "FarLeft", story) {
+            @Override
+            protected BufferedImage generateImage() {
+                return generateTransformedImage(nearByFrontOriginal, "FarSide", "FarLeft", getDistanceBlend(nearByFrontOriginal, nearDarkening, farDarkening, true, blendColor));
+            }
+        });
 
-        final BufferedImage baseImageLeftHalf = baseImage.getSubimage(0, 0, baseImage.getWidth() / 2, baseImage.getHeight());
-        final BufferedImage closeFrontLeft = baseImage.getSubimage(0, 0, closeFrontSideSize.width, baseImage.getHeight());
+        final ImageTask farRightTask = fork(new ImageTask("Warp", "FarRight", story) {
+            @Override
+            protected BufferedImage generateImage() {
+                return generateTransformedImage(nearByFrontOriginal, "FarSide", "FarRight", getDistanceBlend(nearByFrontOriginal, nearDarkening, farDarkening, false, blendColor));
+            }
+        });
 
-        resultMap.put("CloseFrontLeft", closeFrontLeft);
+        final ImageTask farFrontTask = fork(new ImageTask("Darken", "FarFront", story) {
+            @Override
+            protected BufferedImage generateImage() {
+                return getDarkenedSourceImage(farFrontScaled, farDarkening, farDarkening, true, blendColor);
+            }
+        });
 
-        BufferedImage nearByFront = scaleImage(baseImage, "NearFront");
+        final StageEvent nearFrontEvent = StageEvent.begin("Darken", config.getResolution(), "NearFront", story);
+        final BufferedImage nearByFront = getDarkenedSourceImage(nearByFrontScaled, nearDarkening, nearDarkening, true, blendColor);
+        StageEvent.end(nearFrontEvent, nearByFront);
 
-        final BufferedImage nearByFrontOriginal = new BufferedImage(nearByFront.getWidth(), nearByFront.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        final Dimension closeFrontSideSize = config.getWallSize("CloseFrontSide");
+        final Dimension nearFrontSideSize = config.getWallSize("NearFrontSide");
 
-        final Graphics2D nearByFrontOriginalGraphics = nearByFrontOriginal.createGraphics();
-        nearByFrontOriginalGraphics.drawImage(nearByFront, 0, 0, null);
-        nearByFrontOriginalGraphics.dispose();
-        
-        nearByFront = getDarkenedSourceImage(nearByFront, (float)postProcessingConfig.nearDarkening, (float)postProcessingConfig.nearDarkening, true, blendColor);
-        
-        final BufferedImage nearByFrontRight = nearByFront.getSubimage(nearByFront.getWidth() - nearFrontSideSize.width, 0, nearFrontSideSize.width, nearByFront.getHeight());
-        final BufferedImage nearByFrontLeft = nearByFront.getSubimage(0, 0, nearFrontSideSize.width, nearByFront.getHeight());
+        resultMap.put("CloseFront", baseImage);
+        resultMap.put("CloseFrontRight", baseImage.getSubimage(baseImage.getWidth() - closeFrontSideSize.width, 0, closeFrontSideSize.width, baseImage.getHeight()));
+        resultMap.put("CloseFrontLeft", baseImage.getSubimage(0, 0, closeFrontSideSize.width, baseImage.getHeight()));
 
         resultMap.put("NearFront", nearByFront);
-        resultMap.put("NearFrontRight", nearByFrontRight);
-        resultMap.put("NearFrontLeft", nearByFrontLeft);
+        resultMap.put("NearFrontRight", nearByFront.getSubimage(nearByFront.getWidth() - nearFrontSideSize.width, 0, nearFrontSideSize.width, nearByFront.getHeight()));
+        resultMap.put("NearFrontLeft", nearByFront.getSubimage(0, 0, nearFrontSideSize.width, nearByFront.getHeight()));
 
-        BufferedImage farFront = scaleImage(nearByFrontOriginal, "FarFront");
+        final BufferedImage farFront = farFrontTask.join();
+        resultMap.put("FarFront", farFront);
+        resultMap.put("FarFrontSecondary", farFront);
+
+        if (cachedCloseSides == null) {
+            final Map<String, BufferedImage> closeSides = new HashMap<String, BufferedImage>();
+            closeSides.put("CloseLeft", closeLeftTask.join());
+            closeSides.put("CloseRight", closeRightTask.join());
+            putCachedStage(closeSideStageKey, closeSides);
+            resultMap.putAll(closeSides);
+        } else {
+            resultMap.putAll(cachedCloseSides);
+        }
+        resultMap.put("NearLeft", nearLeftTask.join());
+        resultMap.put("NearRight", nearRightTask.join());
+        resultMap.put("FarLeft", farLeftTask.join());
+        resultMap.put("FarRight", farRightTask.join());
+
+        putCachedStage(viewStageKey, new HashMap<String, BufferedImage>(resultMap));
+        return resultMap;
+    }
+
+    /* The CloseFront, NearFront and FarFront scalings, which depend on the source and the scaling settings only */
+    private Map<String, BufferedImage> scaleFronts(BufferedImage baseSourceImage, int story, int storiesForSingleImage) {
+        BufferedImage sourceImage = baseSourceImage;
         
-        final BufferedImage farFrontOriginal = new BufferedImage(farFront.getWidth(), farFront.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        if (storiesForSingleImage > 1) {
+        	final Dimension wallSize = config.getWallSize("CloseFront");
+        	final BufferedImage largeSourceImage = scaleSingleFileSource(baseSourceImage, wallSize, story, storiesForSingleImage);
+        	sourceImage = largeSourceImage.getSubimage(0, (( (storiesForSingleImage - 1) - (story - 1)) * wallSize.height), wallSize.width, wallSize.height);
+        }
         
-        final Graphics2D farFrontOriginalGraphics = farFrontOriginal.createGraphics();
-        farFrontOriginalGraphics.drawImage(farFront, 0, 0, null);
-        farFrontOriginalGraphics.dispose();
-                
-        farFront = getDarkenedSourceImage(farFront, (float)postProcessingConfig.farDarkening, (float)postProcessingConfig.farDarkening, true, blendColor);
-                        
-        resultMap.put("FarFront", farFront);
+        final BufferedImage baseImage = scaleImage(sourceImage, "CloseFront", story);
+        final BufferedImage nearByFrontScaled = scaleImage(baseImage, "NearFront", story);
 
-        resultMap.put("FarFrontSecondary", farFront);
+        final BufferedImage nearByFrontOriginal = new BufferedImage(nearByFrontScaled.getWidth(), nearByFrontScaled.getHeight(), BufferedImage.TYPE_INT_ARGB);
 
-        final BufferedImage closeLeft = generateTransformedImage(baseImageRightHalf, "CloseSide", "CloseLeft");
-        resultMap.put("CloseLeft", closeLeft);
+        final Graphics2D nearByFrontOriginalGraphics = nearByFrontOriginal.createGraphics();
+        nearByFrontOriginalGraphics.drawImage(nearByFrontScaled, 0, 0, null);
+        nearByFrontOriginalGraphics.dispose();
 
-        final BufferedImage closeRight = generateTransformedImage(baseImageLeftHalf, "CloseSide", "CloseRight");
-        resultMap.put("CloseRight", closeRight);
+        final Map<String, BufferedImage> scaledImages = new HashMap<String, BufferedImage>();
+        scaledImages.put("CloseFront", baseImage);
+        scaledImages.put("NearFront", nearByFrontScaled);
+        scaledImages.put("NearFrontArgb", nearByFrontOriginal);
+        scaledImages.put("FarFront", scaleImage(nearByFrontOriginal, "FarFront", story));
+        return scaledImages;
+    }
 
-        final BufferedImage nearLeft = generateTransformedImage(getDarkenedSourceImage(baseImage, 0f, (float)postProcessingConfig.nearDarkening, true, blendColor), "NearSide", "NearLeft");
-        resultMap.put("NearLeft", nearLeft);
+    /* Every story of a Single File wall set is cut from the same tall image, so it is kept as a stage of its own */
+    private BufferedImage scaleSingleFileSource(BufferedImage baseSourceImage, Dimension wallSize, int story, int storiesForSingleImage) {
+        final String stageKey = createScaledStageKey(baseSourceImage, 0, storiesForSingleImage);
+        final Map<String, BufferedImage> cachedStage = getCachedStage(stageKey);
+        if (cachedStage != null) {
+        	return cachedStage.get("SingleFile");
+        }
 
-        final BufferedImage nearRight = generateTransformedImage(getDarkenedSourceImage(baseImage, 0f, (float)postProcessingConfig.nearDarkening, false, blendColor), "NearSide", "NearRight");
-        resultMap.put("NearRight", nearRight);
+        final BufferedImage largeSourceImage = scaleImage(baseSourceImage, new Dimension(wallSize.width, wallSize.height * storiesForSingleImage), "SingleFile", story);
+        putCachedStage(stageKey, Collections.singletonMap("SingleFile", largeSourceImage));
+        return largeSourceImage;
+    }
 
-        final BufferedImage farLeft = generateTransformedImage(getDarkenedSourceImage(nearByFrontOriginal, (float)postProcessingConfig.nearDarkening, (float)postProcessingConfig.farDarkening, true, blendColor), "FarSide", "FarLeft");
-        resultMap.put("FarLeft", farLeft);
+    /* With one story per image the scaling does not depend on the story, so those keys all use story 1 */
+    private String createScaledStageKey(BufferedImage baseSourceImage, int story, int storiesForSingleImage) {
+        if (stageCache == null) {
+            return null;
+        }
+        return stageCache.getSourceId(baseSourceImage)
+            + '|' + (storiesForSingleImage > 1 ? story : 1) + '/' + storiesForSingleImage
+            + '|' + config.getFingerprint()
+            + '|' + postProcessingConfig.scalingMethod
+            + '|' + postProcessingConfig.unsharpenMask
+            + '|' + postProcessingConfig.softening
+            + '|' + postProcessingConfig.postProcessingOrder;
+    }
 
-        final BufferedImage farRight = generateTransformedImage(getDarkenedSourceImage(nearByFrontOriginal, (float)postProcessingConfig.nearDarkening, (float)postProcessingConfig.farDarkening, false, blendColor), "FarSide", "FarRight");
-        resultMap.put("FarRight", farRight);
+    private String createViewStageKey(BufferedImage baseSourceImage, int story, int storiesForSingleImage) {
+        if (stageCache == null) {
+            return null;
+        }
+        final Color blendColor = postProcessingConfig.distanceBlendColor;
+        return createScaledStageKey(baseSourceImage, story, storiesForSingleImage)
+            + "|Views"
+            + '|' + postProcessingConfig.nearDarkening
+            + '|' + postProcessingConfig.farDarkening
+            + '|' + (blendColor == null ? "null" : Integer.toHexString(blendColor.getRGB()));
+    }
 
-        if (story > 1) {
-        	return generateStoryImages(resultMap, story);
-        } else {
-        	return resultMap;
+    private Map<String, BufferedImage> getCachedStage(String key) {
+        return stageCache == null ? null : stageCache.get(key);
+    }
+
+    private void putCachedStage(String key, Map<String, BufferedImage> stage) {
+        if (stageCache != null) {
+            stageCache.put(key, stage);
         }
     }
 
-    private Map<String, BufferedImage> generateStoryImages(Map<String, BufferedImage> source, int story) {
+    private ImageTask fork(ImageTask task) {
+        task.fork();
+        return task;
+    }
+
+    /* The stages below are package-private so the benchmarks can time them on their own */
+    Map<String, BufferedImage> generateStoryImages(Map<String, BufferedImage> source, int story) {
     	final Map<String, BufferedImage> resultMap = new HashMap<String, BufferedImage>();
 
-    	for(String key : this.stackingBaselines.keySet()) {
-    		final BufferedImage baselineImage = this.stackingBaselines.get(key);
-    		final BufferedImage sourceImage = source.get(key);
-    		final BufferedImage image = new BufferedImage(sourceImage.getWidth(), sourceImage.getHeight() * story, BufferedImage.TYPE_INT_ARGB);
-    		Graphics2D graphics = image.createGraphics();
-    		log.debug("Key: " + key);
-    		log.debug("Height: " + baselineImage.getHeight());
-    		for(int x = 0; x < baselineImage.getWidth(); x++) {
-    			int startY = -1;
-    			int endY = -1;
-    			for(int y = 0; y < baselineImage.getHeight(); y++) {
-    				if ((baselineImage.getRGB(x, y) & 0xFF000000) != 0) {
-    					if (startY == -1) {
-    						startY = y;
+    	for(String key : source.keySet()) {
+    		final StageEvent event = StageEvent.begin("Stack", config.getResolution(), key, story);
+    		final BufferedImage image = stackImage(source.get(key), getStackingProfile(key), story);
+    		StageEvent.end(event, image);
+    		resultMap.put(key, image);
+    	}
+    	
+    	return resultMap;
+    }
+    
+    /* Shifts each column's covered span down so that it ends where the span of the given story ends */
+    private BufferedImage stackImage(BufferedImage sourceImage, final CoverageSpans profile, final int story) {
+    	final ArgbRaster source = ArgbRaster.forReading(sourceImage);
+    	final int width = source.getWidth();
+    	final int height = source.getHeight();
+    	final BufferedImage image = new BufferedImage(width, height * story, BufferedImage.TYPE_INT_ARGB);
+    	final ArgbRaster target = ArgbRaster.forWriting(image);
+    	final int[] sourceData = source.getData();
+    	final int[] targetData = target.getData();
+    	final int targetStride = target.getScanlineStride();
+
+    	RowBands.process(width, height, new RowBands.Task() {
+    		@Override
+    		public void process(int startRow, int endRow) {
+    			for(int y = startRow; y < endRow; y++) {
+    				final int sourceRow = source.indexOf(0, y);
+    				final int targetRow = target.indexOf(0, y);
+    				/* Copied pixel by pixel with the rounding of the drawImage calls this replaced */
+    				if (profile == null) {
+    					for(int x = 0; x < width; x++) {
+    						targetData[targetRow + x] = ArgbRaster.copyPixel(sourceData[sourceRow + x]);
+    					}
+    					continue;
+    				}
+    				for(int x = 0; x < width; x++) {
+    					final int startY = profile.getColumnStart(x);
+    					final int endY = profile.getColumnEnd(x);
+    					if (y >= startY && y < endY) {
+    						final int shift = (story - 1) * (height - (endY - startY));
+    						targetData[targetRow + (shift * targetStride) + x] = ArgbRaster.copyPixel(sourceData[sourceRow + x]);
     					}
-    					endY = y;
     				}
     			}
-    			log.debug("StartY: " + startY + " EndY: " + endY);
-    			BufferedImage slice = sourceImage.getSubimage(x,  startY, 1, endY - startY + 1);
-    			int writeOffset = ((story - 1) * sourceImage.getHeight()) + startY;
-    			writeOffset -= ((endY - startY + 1) * (story - 1));
-    			
-    			graphics.drawImage(slice, x, writeOffset, null);
     		}
-    		graphics.dispose();
-    		resultMap.put(key, image);
+    	});
+
+    	return image;
+    }
+
+    /* Column spans covered by each view when stacked; null means every column is fully covered */
+    private CoverageSpans getStackingProfile(String viewKey) {
+    	final Dimension closeFrontSize = config.getWallSize("CloseFront");
+    	final Dimension nearFrontSize = config.getWallSize("NearFront");
+
+    	if ("CloseLeft".equals(viewKey) || "CloseRight".equals(viewKey)) {
+    		return config.getWarpTable(viewKey, "CloseSide", closeFrontSize.width / 2, closeFrontSize.height).getCoverage();
+    	} else if ("NearLeft".equals(viewKey) || "NearRight".equals(viewKey)) {
+    		return config.getWarpTable(viewKey, "NearSide", closeFrontSize.width, closeFrontSize.height).getCoverage();
+    	} else if ("FarLeft".equals(viewKey) || "FarRight".equals(viewKey)) {
+    		return config.getWarpTable(viewKey, "FarSide", nearFrontSize.width, nearFrontSize.height).getCoverage();
+    	} else {
+    		return null;
     	}
-    	
-    	return resultMap;
     }
     
     public Map<String, BufferedImage> generate(BufferedImage sourceImage, int story) {
     	return generate(sourceImage, story, 1);
     }
     
-    private BufferedImage getDarkenedSourceImage(BufferedImage sourceImage, float startAlpha, float endAlpha, boolean leftToRight, Color blendColor) {
-    	if (startAlpha > ZERO_PERCENT_THRESHOLD || endAlpha > ZERO_PERCENT_THRESHOLD) {
-    		final BufferedImage blendSource = new BufferedImage(1, sourceImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
-    		final BufferedImage modifiedSourceImage = new BufferedImage(sourceImage.getWidth(), sourceImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
-    		
-    		final Graphics2D blendSourceGraphics = blendSource.createGraphics();
-    		blendSourceGraphics.setColor(blendColor);
-    		blendSourceGraphics.fillRect(0, 0, 1, sourceImage.getHeight());
-    		blendSourceGraphics.dispose();
-    
-    		final Graphics2D graphics = modifiedSourceImage.createGraphics();
-    		graphics.drawImage(sourceImage, 0, 0, null);
-    		
-    		final float delta = (endAlpha - startAlpha) / sourceImage.getWidth();
-    		
-    		if (leftToRight) {
-    			for(int i = 0; i < sourceImage.getWidth(); i++) {
-    				final float alpha = startAlpha + (delta * i);
-    				graphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
-    				graphics.drawImage(blendSource, i, 0, null);
-    			}
-    		} else {
-    			for(int i = sourceImage.getWidth() - 1; i >= 0; i--) {
-    				final float alpha = startAlpha + (delta * ((sourceImage.getWidth() - 1) - i));
-    				graphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
-    				graphics.drawImage(blendSource, i, 0, null);    				
-    			}
-    		}    		    		    		
-    		graphics.dispose();
-    		
-    		for(int x = 0; x < sourceImage.getWidth(); x++) {
-    			for(int y = 0; y < sourceImage.getHeight(); y++) {
-    				int sourceAlphaValue = (sourceImage.getRGB(x, y) & 0xFF000000);
-    				int targetPixelColor = (modifiedSourceImage.getRGB(x, y) & 0x00FFFFFF);
-    				modifiedSourceImage.setRGB(x, y, (targetPixelColor | sourceAlphaValue));
-    			}
-    		}
-    		
-    		return modifiedSourceImage;
+    BufferedImage getDarkenedSourceImage(BufferedImage sourceImage, float startAlpha, float endAlpha, boolean leftToRight, Color blendColor) {
+    	final DistanceBlend blend = getDistanceBlend(sourceImage, startAlpha, endAlpha, leftToRight, blendColor);
+    	if (blend != null) {
+    		return blend.apply(sourceImage);
     	} else {
     		return sourceImage;
     	}
     }
 
-    private BufferedImage generateTransformedImage(BufferedImage sourceImage, String wallSizeKey, String transformKey) {
-        final PerspectiveTransform transform = config.getTransform(transformKey);
-
-        final Dimension wallSize = config.getWallSize(wallSizeKey);
+    private DistanceBlend getDistanceBlend(BufferedImage sourceImage, float startAlpha, float endAlpha, boolean leftToRight, Color blendColor) {
+    	if (startAlpha > ZERO_PERCENT_THRESHOLD || endAlpha > ZERO_PERCENT_THRESHOLD) {
+    		return new DistanceBlend(sourceImage.getWidth(), startAlpha, endAlpha, leftToRight, blendColor);
+    	} else {
+    		return null;
+    	}
+    }
 
-        final BufferedImage resultImage = new BufferedImage(wallSize.width, wallSize.height, BufferedImage.TYPE_INT_ARGB);
+    BufferedImage generateTransformedImage(BufferedImage sourceImage, String wallSizeKey, String transformKey) {
+        return generateTransformedImage(sourceImage, wallSizeKey, transformKey, null);
+    }
 
-        applyTransform(sourceImage, resultImage, transform);
-        return resultImage;
+    private BufferedImage generateTransformedImage(BufferedImage sourceImage, String wallSizeKey, String transformKey, DistanceBlend blend) {
+        final WarpTable warpTable = config.getWarpTable(transformKey, wallSizeKey, sourceImage.getWidth(), sourceImage.getHeight());
+        return warpTable.apply(sourceImage, blend);
     }
 
     private AdvancedResizeOp getImageScaler(int targetWidth, int targetHeight) {
@@ -287,7 +411,11 @@ public class Generator {
     	return result;
     }	
     
-    private BufferedImage scaleImage(BufferedImage sourceImage, Dimension targetDimension) {
+    BufferedImage scaleImage(BufferedImage sourceImage, Dimension targetDimension) {
+        return scaleImage(sourceImage, targetDimension, null, 0);
+    }
+
+    private BufferedImage scaleImage(BufferedImage sourceImage, Dimension targetDimension, String viewKey, int story) {
         BufferedImage scaledImage = null;
         
         final int targetWidth = targetDimension.width;
@@ -297,35 +425,59 @@ public class Generator {
         	return sourceImage;
         }	
         
+        /* The scaling library can not be interrupted, so check before starting it */
+        Cancellation.checkCurrent();
+        final StageEvent event = StageEvent.begin("Scale", config.getResolution(), viewKey, story);
        	scaledImage = getImageScaler(targetWidth, targetHeight).filter(sourceImage, null);
+        StageEvent.end(event, scaledImage);
        
-        return postProcess(scaledImage);    	
+        return postProcess(scaledImage, viewKey, story);    	
     }
     
-    private BufferedImage scaleImage(BufferedImage sourceImage, String configKey) {
+    private BufferedImage scaleImage(BufferedImage sourceImage, String configKey, int story) {
         final Dimension wallSize = config.getWallSize(configKey);
-        return scaleImage(sourceImage, wallSize);
+        return scaleImage(sourceImage, wallSize, configKey, story);
     }
     
-    private BufferedImage postProcess(BufferedImage image) {
+    private BufferedImage postProcess(BufferedImage image, String viewKey, int story) {
     	BufferedImage processedImage = image;
     	if (postProcessingConfig.softening == null || postProcessingConfig.unsharpenMask == UnsharpenMask.None) {
-    		processedImage = unsharpMask(processedImage, postProcessingConfig.unsharpenMask);
-    		processedImage = soften(processedImage, postProcessingConfig.softening);
+    		processedImage = unsharpMask(processedImage, viewKey, story);
+    		processedImage = soften(processedImage, viewKey, story);
     	} else {
     		if (postProcessingConfig.postProcessingOrder == PostProcessingConfig.SOFTEN_BEFORE_UNSHARPEN) {
-        		processedImage = soften(processedImage, postProcessingConfig.softening);    			
-        		processedImage = unsharpMask(processedImage, postProcessingConfig.unsharpenMask);    			
+        		processedImage = soften(processedImage, viewKey, story);    			
+        		processedImage = unsharpMask(processedImage, viewKey, story);    			
     		} else if (postProcessingConfig.postProcessingOrder == PostProcessingConfig.UNSHARPEN_BEFORE_SOFTEN) {
-        		processedImage = unsharpMask(processedImage, postProcessingConfig.unsharpenMask);
-        		processedImage = soften(processedImage, postProcessingConfig.softening);    			
+        		processedImage = unsharpMask(processedImage, viewKey, story);
+        		processedImage = soften(processedImage, viewKey, story);    			
     		}
     	}
     	
     	return processedImage;
     }
+
+    private BufferedImage unsharpMask(BufferedImage image, String viewKey, int story) {
+    	if (postProcessingConfig.unsharpenMask == UnsharpenMask.None) {
+    		return image;
+    	}
+    	final StageEvent event = StageEvent.begin("Unsharp Mask", config.getResolution(), viewKey, story);
+    	final BufferedImage maskedImage = unsharpMask(image, postProcessingConfig.unsharpenMask);
+    	StageEvent.end(event, maskedImage);
+    	return maskedImage;
+    }
+
+    private BufferedImage soften(BufferedImage image, String viewKey, int story) {
+    	if (postProcessingConfig.softening == null || postProcessingConfig.softening <= ZERO_PERCENT_THRESHOLD) {
+    		return image;
+    	}
+    	final StageEvent event = StageEvent.begin("Soften", config.getResolution(), viewKey, story);
+    	final BufferedImage softenedImage = soften(image, postProcessingConfig.softening);
+    	StageEvent.end(event, softenedImage);
+    	return softenedImage;
+    }
     
-    private BufferedImage unsharpMask(BufferedImage sourceImage, UnsharpenMask maskValue) {
+    BufferedImage unsharpMask(BufferedImage sourceImage, UnsharpenMask maskValue) {
     	if (maskValue == UnsharpenMask.None) {
     		return sourceImage;
     	}
@@ -344,8 +496,7 @@ public class Generator {
         	log.info("Applying Softening...");
             float[] softenArray = {0, softenFactor, 0, softenFactor, 1-(softenFactor*4), softenFactor, 0, softenFactor, 0};
             Kernel kernel = new Kernel(3, 3, softenArray);
-            ConvolveOp cOp = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null);
-            return convertFromPreMultipliedAlpha(cOp.filter(image, null));
+            return convertFromPreMultipliedAlpha(new BandedConvolution(kernel).filter(image));
         }
     }
     
@@ -364,32 +515,39 @@ public class Generator {
     	graphics.dispose();
     	return nonPremultipliedAlphaImage;
     }
-    
 
-    private void applyTransform(BufferedImage sourceImage, BufferedImage destinationImage, PerspectiveTransform transform) {
-        for(int x = 0; x < destinationImage.getWidth(); x++) {
-            for(int y = 0; y < destinationImage.getHeight(); y++) {
-                try {
-                    final Point2D sourcePoint = new Point2D.Double(x, y);
-                    final Point2D destPoint = new Point2D.Double();
-                    transform.inverseTransform(sourcePoint, destPoint);
-
-                    int destPointX = (int)destPoint.getX();
-                    int destPointY = (int)destPoint.getY();
-
-                    if (destPointX < 0 ||
-                            destPointY < 0 ||
-                            destPointX >= sourceImage.getWidth() ||
-                            destPointY >= sourceImage.getHeight()) {
-                        continue;
-                    }
-
-                    final int color = sourceImage.getRGB(destPointX, destPointY);
-                    destinationImage.setRGB((int)sourcePoint.getX(), (int)sourcePoint.getY(), color);
-                } catch (Exception e) {
-                    throw new RuntimeException("Error transforming image!", e);
-                }
+    /*
+     * Tasks carry the cancellation of the thread that created them onto whichever thread runs them,
+     * and time themselves there as one stage event.
+     */
+    private abstract class ImageTask extends RecursiveTask<BufferedImage> {
+        private static final long serialVersionUID = 1L;
+
+        private final Cancellation cancellation = Cancellation.getCurrent();
+        private final String stage;
+        private final String viewKey;
+        private final int story;
+
+        ImageTask(String stage, String viewKey, int story) {
+            this.stage = stage;
+            this.viewKey = viewKey;
+            this.story = story;
+        }
+
+        @Override
+        protected final BufferedImage compute() {
+            final Cancellation previous = Cancellation.install(cancellation);
+            try {
+                Cancellation.checkCurrent();
+                final StageEvent event = StageEvent.begin(stage, config.getResolution(), viewKey, story);
+                final BufferedImage image = generateImage();
+                StageEvent.end(event, image);
+                return image;
+            } finally {
+                Cancellation.install(previous);
             }
         }
+
+        protected abstract BufferedImage generateImage();
     }
 }
@@ -28,21 +28,177 @@ or implied, of Daniel Morton.
 
 package ca.quadrilateral.wallgenerator;
 
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import ca.quadrilateral.wallgenerator.config.OutputConfig;
+import ca.quadrilateral.wallgenerator.image.Cancellation;
+import ca.quadrilateral.wallgenerator.image.RowBands;
 
+/*
+ * Writes every view of every story to its own file, named <base>_<view>.<type> for a single story
+ * and <base>_<view>_story<n>.<type> otherwise.  Views are encoded concurrently on a small shared
+ * pool and each file is written under a temporary name and renamed into place, so a partially
+ * written file never appears under its final name.  When generate is cancelled or fails part way,
+ * it stops the writes still outstanding and waits for them before returning.
+ */
 public class IndividualFileOutputGenerator extends OutputGenerator {
+	private static final Logger log = LoggerFactory.getLogger(IndividualFileOutputGenerator.class);
+	
+	private static final ExecutorService encoders = Executors.newFixedThreadPool(RowBands.getParallelism(), new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "wallgen-encoder");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 
     @Override
-    public void generate(OutputConfig outputConfig, File targetDirectory,
-            String fileBaseName, String outputFormat,
-            List<Map<String, BufferedImage>> imageMaps, boolean useTransparency) throws IOException {
+    public int generate(OutputConfig outputConfig, File targetDirectory,
+            final String fileBaseName, final String outputFormat,
+            List<Map<String, BufferedImage>> imageMaps, final boolean useTransparency) throws IOException {
+    	
+    	final Cancellation cancellation = Cancellation.getCurrent();
+    	final AtomicBoolean abandoned = new AtomicBoolean();
+    	final List<Future<File>> writes = new ArrayList<Future<File>>();
+    	for(int i = 0; i < imageMaps.size(); i++) {
+    		for(Map.Entry<String, BufferedImage> view : new TreeMap<String, BufferedImage>(imageMaps.get(i)).entrySet()) {
+    			final File targetFile = generateOutputFile(targetDirectory, fileBaseName, view.getKey(), imageMaps.size() > 1 ? i + 1 : 0, outputFormat);
+    			final BufferedImage image = view.getValue();
+    			final String viewKey = view.getKey();
+    			final int story = i + 1;
+    			writes.add(encoders.submit(new Callable<File>() {
+    				@Override
+    				public File call() throws IOException {
+    					final Cancellation previous = Cancellation.install(cancellation);
+    					try {
+    						checkAbandoned(abandoned);
+    						final StageEvent event = StageEvent.begin("Encode " + outputFormat.toUpperCase(), null, viewKey, story);
+    						writeImageAtomically(image, outputFormat, targetFile, useTransparency, abandoned);
+    						StageEvent.end(event, image);
+    						return targetFile;
+    					} finally {
+    						Cancellation.install(previous);
+    					}
+    				}
+    			}));
+    		}
+    	}
+    	
+    	IOException failure = null;
+    	boolean finished = false;
+    	try {
+	    	for(Future<File> write : writes) {
+	    		try {
+	    			log.debug("Wrote " + write.get().getAbsolutePath());
+	    		} catch (ExecutionException e) {
+	    			if (e.getCause() instanceof CancellationException) {
+	    				throw (CancellationException)e.getCause();
+	    			}
+	    			if (failure == null) {
+	    				failure = e.getCause() instanceof IOException 
+	    						? (IOException)e.getCause() 
+	    						: new IOException("Error writing wall view", e.getCause());
+	    			}
+	    		} catch (InterruptedException e) {
+	    			Thread.currentThread().interrupt();
+	    			throw new IOException("Interrupted while writing wall views", e);
+	    		}
+	    	}
+	    	finished = true;
+    	} finally {
+    		if (!finished) {
+    			abandonWrites(writes, abandoned);
+    		}
+    	}
+    	if (failure != null) {
+    		throw failure;
+    	}
+    	
+    	log.info("Wrote " + writes.size() + " wall view files to " + targetDirectory.getAbsolutePath());
+    	return writes.size();
+    }
 
+    /*
+     * Stops the writes that are still queued or running and waits for them, so no file is moved into
+     * the target directory after generate has returned.  Writes check the flag before they start and
+     * again before their temporary file is moved into place.
+     */
+    private void abandonWrites(List<Future<File>> writes, AtomicBoolean abandoned) {
+    	abandoned.set(true);
+    	for(Future<File> write : writes) {
+    		try {
+    			write.get();
+    		} catch (ExecutionException e) {
+    			log.debug("Abandoned wall view write", e.getCause());
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    			return;
+    		}
+    	}
+    }
+    
+    private static void checkAbandoned(AtomicBoolean abandoned) {
+    	Cancellation.checkCurrent();
+    	if (abandoned.get()) {
+    		throw new CancellationException("Wall view write abandoned");
+    	}
     }
 
+    private File generateOutputFile(File targetDirectory, String fileBaseName, String viewKey, int story, String outputFormat) {
+    	final StringBuilder fileName = new StringBuilder(fileBaseName.replace(' ', '_')).append('_').append(viewKey);
+    	if (story > 0) {
+    		fileName.append("_story").append(story);
+    	}
+    	fileName.append('.').append(outputFormat.toLowerCase());
+    	return new File(targetDirectory, fileName.toString());
+    }
+    
+    private void writeImageAtomically(BufferedImage image, String outputFormat, File targetFile, boolean useTransparency, AtomicBoolean abandoned) throws IOException {
+    	final File temporaryFile = File.createTempFile(targetFile.getName(), ".tmp", targetFile.getParentFile());
+    	try {
+    		writeImage(prepareImage(image, useTransparency), outputFormat, temporaryFile);
+    		checkAbandoned(abandoned);
+    		Files.move(temporaryFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    	} finally {
+    		if (temporaryFile.exists() && !temporaryFile.delete()) {
+    			temporaryFile.deleteOnExit();
+    		}
+    	}
+    }
+    
+    /* Without alpha, uncovered pixels are filled with the transparency colour like the single file outputs */
+    private BufferedImage prepareImage(BufferedImage image, boolean useTransparency) {
+    	if (useTransparency) {
+    		return image;
+    	}
+    	
+    	final BufferedImage opaqueImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    	final Graphics2D graphics = opaqueImage.createGraphics();
+    	graphics.setColor(WallGenerator.getConfigManager().getColor("Transparency"));
+    	graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+    	graphics.drawImage(image, 0, 0, null);
+    	graphics.dispose();
+    	return opaqueImage;
+    }
 }
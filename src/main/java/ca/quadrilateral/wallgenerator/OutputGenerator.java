@@ -33,12 +33,27 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import javax.imageio.ImageIO;
 
 import ca.quadrilateral.wallgenerator.config.OutputConfig;
+import ca.quadrilateral.wallgenerator.image.BmpWriter;
+import ca.quadrilateral.wallgenerator.image.PngWriter;
 
 public abstract class OutputGenerator {
-	public abstract void generate(OutputConfig outputConfig, File targetDirectory,
+	/* Returns the number of files written */
+	public abstract int generate(OutputConfig outputConfig, File targetDirectory,
 			String fileBaseName, String outputFormat,
 			List<Map<String, BufferedImage>> imageMaps, boolean useTransparency)
 			throws IOException;
+	
+	/* PNG and BMP have their own writers, every other type goes through whatever writer ImageIO has */
+	protected static void writeImage(BufferedImage image, String outputFormat, File targetFile) throws IOException {
+		if ("png".equalsIgnoreCase(outputFormat)) {
+			new PngWriter().write(image, targetFile);
+		} else if ("bmp".equalsIgnoreCase(outputFormat)) {
+			new BmpWriter(image).write(image, targetFile);
+		} else if (!ImageIO.write(image, outputFormat, targetFile)) {
+			throw new IOException("No image writer available for " + outputFormat);
+		}
+	}
 }
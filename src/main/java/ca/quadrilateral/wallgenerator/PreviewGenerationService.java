@@ -40,6 +40,7 @@ public class PreviewGenerationService {
 		if (generatedImages == null || generatedImages.size() == 0) {
 			throw new IllegalArgumentException("Invalid generated images passed to generatePreview.");
 		}
+		final StageEvent event = StageEvent.begin("Preview", null, null, generatedImages.size());
 		final Map<String, BufferedImage> firstStoryImages = generatedImages.get(0);
 		final int largestBaseImageHeight = firstStoryImages.get("CloseLeft").getHeight();
 
@@ -61,6 +62,7 @@ public class PreviewGenerationService {
 		drawPosition += drawPreviewImagePortion(generatedImages, graphics, "CloseRight", drawPosition, largestBaseImageHeight, 0);
 
 		graphics.dispose();
+		StageEvent.end(event, previewImage);
 
 		return previewImage;
 	}
@@ -41,7 +41,6 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import javax.imageio.ImageIO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,7 +52,7 @@ public class SingleFileOutputGenerator extends OutputGenerator {
 	private static final Logger log = LoggerFactory.getLogger(WallGeneratorFrame.class);
 
     @Override
-    public void generate(OutputConfig outputConfig, File targetDirectory, String fileBaseName, String outputFormat, List<Map<String, BufferedImage>> imageMaps, boolean useTransparency) throws IOException {
+    public int generate(OutputConfig outputConfig, File targetDirectory, String fileBaseName, String outputFormat, List<Map<String, BufferedImage>> imageMaps, boolean useTransparency) throws IOException {
         final SingleFileOutputConfig config = (SingleFileOutputConfig)outputConfig;
         final BufferedImage outputImage = new BufferedImage(config.getOutputWidth(), config.getOutputHeight(),        		
                 useTransparency
@@ -68,14 +67,34 @@ public class SingleFileOutputGenerator extends OutputGenerator {
                 
         final File targetFile = generateOutputFile(targetDirectory, fileBaseName, outputFormat);
 
+        final StageEvent composeEvent = StageEvent.begin("Compose", null, config.getName(), imageMaps.size());
         generateOutput(imageMaps, outputImage, config, useTransparency);
+        StageEvent.end(composeEvent, outputImage);
 
         log.info("Writing output file...");
         
-        ImageIO.write(outputImage, outputFormat, targetFile);
+        final StageEvent encodeEvent = StageEvent.begin("Encode " + outputFormat.toUpperCase(), null, config.getName(), imageMaps.size());
+        try {
+        	writeImage(outputImage, outputFormat, targetFile);
+        } catch (IOException e) {
+        	deletePartialFile(targetFile);
+        	throw e;
+        } catch (RuntimeException e) {
+        	deletePartialFile(targetFile);
+        	throw e;
+        }
+        StageEvent.end(encodeEvent, outputImage);
         
         log.info("Done writing output file.");
+        return 1;
+
+    }
 
+    /* A cancelled or failed write should not leave a truncated wall set behind */
+    private void deletePartialFile(File targetFile) {
+    	if (targetFile.exists() && !targetFile.delete()) {
+    		log.warn("Could not delete partially written file " + targetFile.getAbsolutePath());
+    	}
     }
 
     private File generateOutputFile(File targetDirectory, String fileBaseName, String outputFormat) {
@@ -90,7 +109,8 @@ public class SingleFileOutputGenerator extends OutputGenerator {
     	return new Rectangle(transparentRegion.x - (1 * thickness), transparentRegion.y - (1 * thickness), transparentRegion.width + (2 * thickness) -1, transparentRegion.height + (2 * thickness) -1);
     }	
 
-    private void generateOutput(List<Map<String, BufferedImage>> images, BufferedImage outputImage, SingleFileOutputConfig config, boolean useTransparency) {
+    /* Package-private so the benchmarks can time composition apart from encoding */
+    void generateOutput(List<Map<String, BufferedImage>> images, BufferedImage outputImage, SingleFileOutputConfig config, boolean useTransparency) {
         final Graphics2D graphics = outputImage.createGraphics();
         
         log.info("Drawing Background...");
@@ -0,0 +1,134 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Keeps intermediate Generator results, such as the scaled fronts and the close side warps, so that
+ * a settings change only recomputes the stages downstream of it.  Keys are built by Generator from
+ * the inputs each stage depends on and start with an id for the source image.  Source ids are held
+ * against the image instance, which works because sources come from SourceImageCache and are
+ * never modified.  Memory is bounded by pixel bytes, least recently used first out.
+ */
+public class StageCache {
+    public static final String MAXIMUM_BYTES_PROPERTY = "wallgen.stageCacheBytes";
+
+    private static final long DEFAULT_MAXIMUM_BYTES = 64L * 1024 * 1024;
+
+    private final long maximumBytes;
+    private final Map<String, Map<String, BufferedImage>> stages = new LinkedHashMap<String, Map<String, BufferedImage>>(16, 0.75f, true);
+    private final Map<BufferedImage, Long> sourceIds = new WeakHashMap<BufferedImage, Long>();
+    private long nextSourceId = 1;
+    private long currentBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public StageCache() {
+        this(Long.getLong(MAXIMUM_BYTES_PROPERTY, DEFAULT_MAXIMUM_BYTES));
+    }
+
+    public StageCache(long maximumBytes) {
+        this.maximumBytes = maximumBytes;
+    }
+
+    public synchronized String getSourceId(BufferedImage sourceImage) {
+        Long sourceId = sourceIds.get(sourceImage);
+        if (sourceId == null) {
+            sourceId = nextSourceId++;
+            sourceIds.put(sourceImage, sourceId);
+        }
+        return "source" + sourceId;
+    }
+
+    public synchronized Map<String, BufferedImage> get(String key) {
+        final Map<String, BufferedImage> stage = stages.get(key);
+        if (stage == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return stage;
+    }
+
+    public synchronized void put(String key, Map<String, BufferedImage> stage) {
+        final long stageBytes = getPixelBytes(stage);
+        if (stageBytes > maximumBytes) {
+            return;
+        }
+
+        final Map<String, BufferedImage> previousStage = stages.put(key, stage);
+        if (previousStage != null) {
+            currentBytes -= getPixelBytes(previousStage);
+        }
+        currentBytes += stageBytes;
+
+        final Iterator<Map<String, BufferedImage>> iterator = stages.values().iterator();
+        while (currentBytes > maximumBytes && iterator.hasNext()) {
+            currentBytes -= getPixelBytes(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized void clear() {
+        stages.clear();
+        currentBytes = 0;
+    }
+
+    /* Counts each data buffer once, as subimages such as the front sides share the buffer of their parent */
+    static long getPixelBytes(Map<String, BufferedImage> images) {
+        final Set<DataBuffer> dataBuffers = Collections.newSetFromMap(new IdentityHashMap<DataBuffer, Boolean>());
+        long bytes = 0;
+        for(BufferedImage image : images.values()) {
+            final DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+            if (dataBuffers.add(dataBuffer)) {
+                bytes += (long)dataBuffer.getSize() * dataBuffer.getNumBanks() * (DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Timing for one stage of generating, composing or writing walls, tagged with the resolution, view,
+ * story, image size and thread.  Events are off unless the wallgen.stageEvents system property is
+ * true; begin then returns null and end ignores it, so a disabled event costs one field check.
+ * When enabled every event is logged by this class's logger and added to per-stage totals.  Bytes
+ * allocated are those of the thread that ran the stage, so work it hands to row bands on other
+ * threads is timed but not counted.  Stages nest: a Generate event includes its Scale and Warp events.
+ */
+public final class StageEvent {
+    public static final String ENABLED_PROPERTY = "wallgen.stageEvents";
+
+    private static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+    private static final Logger log = LoggerFactory.getLogger(StageEvent.class);
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final ConcurrentMap<String, StageTotals> totals = new ConcurrentHashMap<String, StageTotals>();
+
+    private final String stage;
+    private final String resolution;
+    private final String view;
+    private final int story;
+    private final Thread thread;
+    private final long startAllocatedBytes;
+    private final long startTime;
+
+    private StageEvent(String stage, String resolution, String view, int story) {
+        this.stage = stage;
+        this.resolution = resolution;
+        this.view = view;
+        this.story = story;
+        this.thread = Thread.currentThread();
+        this.startAllocatedBytes = getAllocatedBytes(thread);
+        this.startTime = System.nanoTime();
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /* Resolution and view may be null, and story is 0, where a stage is not specific to one */
+    public static StageEvent begin(String stage, String resolution, String view, int story) {
+        return ENABLED ? new StageEvent(stage, resolution, view, story) : null;
+    }
+
+    /* The image is the stage's result, or null when it has none */
+    public static void end(StageEvent event, BufferedImage image) {
+        if (event != null) {
+            event.commit(image);
+        }
+    }
+
+    public static String getSummary() {
+        final StringBuilder summary = new StringBuilder("Stage timings:");
+        for(Map.Entry<String, StageTotals> stageTotals : new TreeMap<String, StageTotals>(totals).entrySet()) {
+            final StageTotals stage = stageTotals.getValue();
+            summary.append(String.format(Locale.US, "%n  %-14s %6d events %10.1f ms total %8.2f ms average %10.1f MB allocated",
+                    stageTotals.getKey(),
+                    stage.events.get(),
+                    stage.nanos.get() / 1000000.0,
+                    stage.nanos.get() / 1000000.0 / Math.max(stage.events.get(), 1),
+                    stage.allocatedBytes.get() / (1024.0 * 1024.0)));
+        }
+        return summary.toString();
+    }
+
+    private void commit(BufferedImage image) {
+        final long duration = System.nanoTime() - startTime;
+        final long allocatedBytes = startAllocatedBytes < 0 ? -1 : getAllocatedBytes(thread) - startAllocatedBytes;
+
+        StageTotals stageTotals = totals.get(stage);
+        if (stageTotals == null) {
+            totals.putIfAbsent(stage, new StageTotals());
+            stageTotals = totals.get(stage);
+        }
+        stageTotals.add(duration, allocatedBytes);
+
+        log.info(String.format(Locale.US, "stage=%s resolution=%s view=%s story=%d size=%dx%d thread=%s duration=%.3fms allocated=%d",
+                stage,
+                resolution == null ? "-" : resolution,
+                view == null ? "-" : view,
+                story,
+                image == null ? 0 : image.getWidth(),
+                image == null ? 0 : image.getHeight(),
+                thread.getName(),
+                duration / 1000000.0,
+                allocatedBytes));
+    }
+
+    /* -1 where the JVM can not report allocation per thread */
+    private static long getAllocatedBytes(Thread thread) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(thread.getId());
+        }
+        return -1;
+    }
+
+    private static class StageTotals {
+        private final AtomicLong events = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+
+        private void add(long duration, long allocated) {
+            events.incrementAndGet();
+            nanos.addAndGet(duration);
+            if (allocated > 0) {
+                allocatedBytes.addAndGet(allocated);
+            }
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.quadrilateral.wallgenerator.config.Config;
+import ca.quadrilateral.wallgenerator.config.PostProcessingConfig;
+import ca.quadrilateral.wallgenerator.image.ArgbRaster;
+
+/*
+ * Caches the views produced by Generator.generate.  The key is a hash of the source pixels, every
+ * PostProcessingConfig field, the story parameters and the fingerprint of the resolution's Config,
+ * so a change to any of them is a miss.  Views are kept in a memory tier bounded by pixel bytes
+ * (least recently used first out) and, when a directory is set, in a disk tier of raw ARGB files
+ * that survives between runs of the same build.  Each build writes to its own subdirectory, named
+ * from the version and build time stamped into wallgen-build.properties, so views made by older
+ * code are never read; without that stamp the disk tier is not used.  Cached views are shared and must be treated as read-only.  Misses
+ * are generated against a StageCache, so a change that only affects the later stages reuses the
+ * scaling and warping done for earlier settings.
+ */
+public class ViewCache {
+    private static final Logger log = LoggerFactory.getLogger(ViewCache.class);
+
+    public static final String MAXIMUM_BYTES_PROPERTY = "wallgen.viewCacheBytes";
+    public static final String DIRECTORY_PROPERTY = "wallgen.viewCacheDir";
+
+    private static final long DEFAULT_MAXIMUM_BYTES = 128L * 1024 * 1024;
+    private static final int FILE_MAGIC = 0x57475643;
+    /* Bump whenever the file layout changes */
+    private static final int FORMAT_VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String BUILD_RESOURCE = "/wallgen-build.properties";
+    private static final String BUILD_VERSION = readBuildVersion();
+
+    private final long maximumBytes;
+    private final Map<String, Map<String, BufferedImage>> views = new LinkedHashMap<String, Map<String, BufferedImage>>(16, 0.75f, true);
+    private final Map<BufferedImage, String> sourceHashes = new WeakHashMap<BufferedImage, String>();
+    private final StageCache stageCache = new StageCache();
+    private long currentBytes = 0;
+    private File directory;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ViewCache() {
+        this(Long.getLong(MAXIMUM_BYTES_PROPERTY, DEFAULT_MAXIMUM_BYTES),
+             System.getProperty(DIRECTORY_PROPERTY) == null ? null : new File(System.getProperty(DIRECTORY_PROPERTY)));
+    }
+
+    public ViewCache(long maximumBytes, File directory) {
+        this.maximumBytes = maximumBytes;
+        this.directory = directory;
+    }
+
+    public synchronized void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public Map<String, BufferedImage> generate(Config config, PostProcessingConfig postProcessingConfig, BufferedImage sourceImage, int story, int storiesForSingleImage) {
+        final String key = createKey(config, postProcessingConfig, sourceImage, story, storiesForSingleImage);
+
+        Map<String, BufferedImage> result = getFromMemory(key);
+        if (result != null) {
+            memoryHits.incrementAndGet();
+            return result;
+        }
+
+        result = readFromDisk(key);
+        if (result != null) {
+            diskHits.incrementAndGet();
+            putInMemory(key, result);
+            return result;
+        }
+
+        misses.incrementAndGet();
+        result = Collections.unmodifiableMap(
+                new Generator(config, postProcessingConfig, stageCache).generate(sourceImage, story, storiesForSingleImage));
+        putInMemory(key, result);
+        writeToDisk(key, result);
+        return result;
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public String getStatistics() {
+        return "View cache: " + memoryHits.get() + " memory hits, " + diskHits.get() + " disk hits, " + misses.get() + " misses"
+            + "; stage cache: " + stageCache.getHits() + " hits, " + stageCache.getMisses() + " misses";
+    }
+
+    public synchronized void clear() {
+        views.clear();
+        currentBytes = 0;
+        stageCache.clear();
+    }
+
+    private String createKey(Config config, PostProcessingConfig postProcessingConfig, BufferedImage sourceImage, int story, int storiesForSingleImage) {
+        final StringBuilder key = new StringBuilder();
+        key.append(FORMAT_VERSION)
+            .append('|').append(getSourceHash(sourceImage))
+            .append('|').append(config.getFingerprint())
+            .append('|').append(story).append('/').append(storiesForSingleImage)
+            .append('|').append(postProcessingConfig.unsharpenMask)
+            .append('|').append(postProcessingConfig.softening)
+            .append('|').append(postProcessingConfig.scalingMethod)
+            .append('|').append(postProcessingConfig.nearDarkening)
+            .append('|').append(postProcessingConfig.farDarkening)
+            .append('|').append(postProcessingConfig.postProcessingOrder)
+            .append('|').append(postProcessingConfig.distanceBlendColor == null ? "null" : Integer.toHexString(postProcessingConfig.distanceBlendColor.getRGB()));
+        return toHex(digest(key.toString().getBytes(UTF8)));
+    }
+
+    private String getSourceHash(BufferedImage sourceImage) {
+        synchronized (sourceHashes) {
+            final String sourceHash = sourceHashes.get(sourceImage);
+            if (sourceHash != null) {
+                return sourceHash;
+            }
+        }
+
+        final ArgbRaster source = ArgbRaster.forReading(sourceImage);
+        final MessageDigest digest = createDigest();
+        final ByteBuffer rowBuffer = ByteBuffer.allocate(Math.max(8, source.getWidth() * 4));
+        rowBuffer.putInt(source.getWidth()).putInt(source.getHeight());
+        digest.update(rowBuffer.array(), 0, 8);
+        for(int y = 0; y < source.getHeight(); y++) {
+            rowBuffer.clear();
+            rowBuffer.asIntBuffer().put(source.getData(), source.indexOf(0, y), source.getWidth());
+            digest.update(rowBuffer.array(), 0, source.getWidth() * 4);
+        }
+        final String sourceHash = toHex(digest.digest());
+
+        synchronized (sourceHashes) {
+            sourceHashes.put(sourceImage, sourceHash);
+        }
+        return sourceHash;
+    }
+
+    private synchronized Map<String, BufferedImage> getFromMemory(String key) {
+        return views.get(key);
+    }
+
+    private synchronized void putInMemory(String key, Map<String, BufferedImage> result) {
+        final long resultBytes = StageCache.getPixelBytes(result);
+        if (resultBytes > maximumBytes) {
+            return;
+        }
+
+        final Map<String, BufferedImage> previousResult = views.put(key, result);
+        if (previousResult != null) {
+            currentBytes -= StageCache.getPixelBytes(previousResult);
+        }
+        currentBytes += resultBytes;
+
+        final Iterator<Map<String, BufferedImage>> iterator = views.values().iterator();
+        while (currentBytes > maximumBytes && iterator.hasNext()) {
+            currentBytes -= StageCache.getPixelBytes(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private synchronized File getCacheFile(String key) {
+        if (directory == null || BUILD_VERSION == null) {
+            return null;
+        }
+        final File buildDirectory = new File(directory, FORMAT_VERSION + "-" + BUILD_VERSION);
+        return new File(new File(buildDirectory, key.substring(0, 2)), key + ".views");
+    }
+
+    /* Null when the resource is missing or was not filtered by the build */
+    private static String readBuildVersion() {
+        final Properties properties = new Properties();
+        try {
+            final InputStream in = ViewCache.class.getResourceAsStream(BUILD_RESOURCE);
+            if (in == null) {
+                log.info("No " + BUILD_RESOURCE + " found, views will not be cached on disk");
+                return null;
+            }
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read " + BUILD_RESOURCE + ", views will not be cached on disk", e);
+            return null;
+        }
+
+        final String version = properties.getProperty("version");
+        final String timestamp = properties.getProperty("timestamp");
+        if (version == null || timestamp == null || version.contains("${") || timestamp.contains("${")) {
+            log.info(BUILD_RESOURCE + " has no build stamp, views will not be cached on disk");
+            return null;
+        }
+        return version + "-" + timestamp;
+    }
+
+    /* Layout: magic, version, view count, then per view: key length, key bytes, width, height, ARGB pixels */
+    private Map<String, BufferedImage> readFromDisk(String key) {
+        final File cacheFile = getCacheFile(key);
+        if (cacheFile == null || !cacheFile.isFile()) {
+            return null;
+        }
+
+        try {
+            final RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+            try {
+                final FileChannel channel = file.getChannel();
+                final ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        return null;
+                    }
+                }
+                buffer.flip();
+
+                if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                    return null;
+                }
+
+                final Map<String, BufferedImage> result = new HashMap<String, BufferedImage>();
+                final int viewCount = buffer.getInt();
+                for(int i = 0; i < viewCount; i++) {
+                    final byte[] viewKey = new byte[buffer.getInt()];
+                    buffer.get(viewKey);
+                    final int width = buffer.getInt();
+                    final int height = buffer.getInt();
+                    final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                    final ArgbRaster raster = ArgbRaster.forWriting(image);
+                    final IntBuffer pixels = buffer.asIntBuffer();
+                    for(int y = 0; y < height; y++) {
+                        pixels.get(raster.getData(), raster.indexOf(0, y), width);
+                    }
+                    buffer.position(buffer.position() + (width * height * 4));
+                    result.put(new String(viewKey, UTF8), image);
+                }
+                return Collections.unmodifiableMap(result);
+            } finally {
+                file.close();
+            }
+        } catch (Exception e) {
+            log.warn("Ignoring unreadable view cache file " + cacheFile.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Map<String, BufferedImage> result) {
+        final File cacheFile = getCacheFile(key);
+        if (cacheFile == null) {
+            return;
+        }
+
+        final Map<String, BufferedImage> sortedResult = new TreeMap<String, BufferedImage>(result);
+        int fileSize = 12;
+        for(Map.Entry<String, BufferedImage> view : sortedResult.entrySet()) {
+            fileSize += 12 + view.getKey().getBytes(UTF8).length + (view.getValue().getWidth() * view.getValue().getHeight() * 4);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(fileSize);
+        buffer.putInt(FILE_MAGIC).putInt(FORMAT_VERSION).putInt(sortedResult.size());
+        for(Map.Entry<String, BufferedImage> view : sortedResult.entrySet()) {
+            final byte[] viewKey = view.getKey().getBytes(UTF8);
+            final ArgbRaster raster = ArgbRaster.forReading(view.getValue());
+            buffer.putInt(viewKey.length).put(viewKey).putInt(raster.getWidth()).putInt(raster.getHeight());
+            final IntBuffer pixels = buffer.asIntBuffer();
+            for(int y = 0; y < raster.getHeight(); y++) {
+                pixels.put(raster.getData(), raster.indexOf(0, y), raster.getWidth());
+            }
+            buffer.position(buffer.position() + (raster.getWidth() * raster.getHeight() * 4));
+        }
+        buffer.flip();
+
+        File temporaryFile = null;
+        try {
+            final File parent = cacheFile.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Unable to create directory " + parent.getAbsolutePath());
+            }
+
+            temporaryFile = File.createTempFile(key, ".tmp", parent);
+            final RandomAccessFile file = new RandomAccessFile(temporaryFile, "rw");
+            try {
+                final FileChannel channel = file.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                file.close();
+            }
+            Files.move(temporaryFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to write view cache file " + cacheFile.getAbsolutePath(), e);
+            if (temporaryFile != null && !temporaryFile.delete()) {
+                temporaryFile.deleteOnExit();
+            }
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] digest(byte[] bytes) {
+        return createDigest().digest(bytes);
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
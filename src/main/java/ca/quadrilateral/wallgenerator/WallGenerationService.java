@@ -28,47 +28,63 @@ or implied, of Daniel Morton.
 
 package ca.quadrilateral.wallgenerator;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-
-import javax.imageio.ImageIO;
+import java.util.concurrent.RecursiveTask;
 
 import ca.quadrilateral.wallgenerator.config.Config;
 import ca.quadrilateral.wallgenerator.config.FileSelectionConfig;
 import ca.quadrilateral.wallgenerator.config.PostProcessingConfig;
+import ca.quadrilateral.wallgenerator.image.Cancellation;
+import ca.quadrilateral.wallgenerator.image.RowBands;
 
 public class WallGenerationService {
 	
     public List<Map<String, BufferedImage>> fetchImages(final FileSelectionConfig fileSelectionConfig, final PostProcessingConfig postProcessingConfig, String resolution) throws FileNotFoundException, IOException {
+    	return fetchImages(fileSelectionConfig, postProcessingConfig, resolution, null);
+    }
+
+    /* Reports one step per source image read and one per story generated */
+    public List<Map<String, BufferedImage>> fetchImages(final FileSelectionConfig fileSelectionConfig, final PostProcessingConfig postProcessingConfig, String resolution, ProgressListener progressListener) throws FileNotFoundException, IOException {
     	if (fileSelectionConfig.getStories() == 1) {
     		final File sourceFile = fileSelectionConfig.getFirstStorySourceFile();
             if (sourceFile == null) {
                 throw new FileNotFoundException("Source File");
             }
 
-            final BufferedImage sourceImage = ImageIO.read(sourceFile);
+            final Progress progress = new Progress(progressListener, 2);
+            progress.next("Reading source image");
+            final BufferedImage sourceImage = readSourceImage(sourceFile, resolution, 1);
             
+            progress.next("Generating walls");
             final List<Map<String, BufferedImage>> generatedImages = new ArrayList<Map<String, BufferedImage>>();
-            generatedImages.add(new Generator(chooseConfig(resolution), postProcessingConfig).generate(sourceImage, 1));
+            generatedImages.add(generateStory(resolution, postProcessingConfig, sourceImage, 1, 1));
             return generatedImages;
     	} else {
     		if (fileSelectionConfig.hasValidSourceFiles()) {
+    			final int stories = fileSelectionConfig.getStories();
     			if (fileSelectionConfig.getStoryMethod().equals("Individual Files")) {
-    				return generateMultiStoryImages(getSourceImages(fileSelectionConfig.getSourceFiles()), fileSelectionConfig, postProcessingConfig, resolution);
+    				/* Every source file slot is read and generated, whatever the number of stories */
+    				final List<File> sourceFiles = fileSelectionConfig.getSourceFiles();
+    				final Progress progress = new Progress(progressListener, sourceFiles.size() * 2);
+    				return generateMultiStoryImages(getSourceImages(sourceFiles, resolution, progress), 1, false, postProcessingConfig, resolution, progress);
     			} else if (fileSelectionConfig.getStoryMethod().equals("Tiled")) {
-    				List<File> fileList = new ArrayList<File>();
-    				for(int i = 0; i < fileSelectionConfig.getStories(); i++) {
-    					fileList.add(fileSelectionConfig.getFirstStorySourceFile());
-    				}
-    				return generateMultiStoryImages(getSourceImages(fileList), fileSelectionConfig, postProcessingConfig, resolution);
+    				final Progress progress = new Progress(progressListener, stories + 1);
+    				progress.next("Reading source image");
+    				final BufferedImage sourceImage = readSourceImage(fileSelectionConfig.getFirstStorySourceFile(), resolution, 1);
+    				return generateMultiStoryImages(Collections.nCopies(stories, sourceImage), 1, true, postProcessingConfig, resolution, progress);
     			} else {    				    				
-    				return generateMultiStoryImages(Arrays.asList(ImageIO.read(fileSelectionConfig.getFirstStorySourceFile())), fileSelectionConfig, postProcessingConfig, resolution);
+    				final Progress progress = new Progress(progressListener, stories + 1);
+    				progress.next("Reading source image");
+    				final BufferedImage sourceImage = readSourceImage(fileSelectionConfig.getFirstStorySourceFile(), resolution, stories);
+    				return generateMultiStoryImages(Collections.nCopies(stories, sourceImage), stories, true, postProcessingConfig, resolution, progress);
     			}
     		} else {
     			throw new FileNotFoundException("Source File");
@@ -76,29 +92,75 @@ public class WallGenerationService {
     	}
     }
 
-    private List<Map<String, BufferedImage>> generateMultiStoryImages(List<BufferedImage> sourceImages, final FileSelectionConfig fileSelectionConfig, final PostProcessingConfig postProcessingConfig, String resolution) throws IOException {
-    	List<Map<String, BufferedImage>> results = new ArrayList<Map<String, BufferedImage>>();
-    	if (sourceImages.size() == 1) {
-    		final int stories = fileSelectionConfig.getStories();    		
-    		for(int i = 0; i < stories; i++) {
-    			results.add(
-    					new Generator(chooseConfig(resolution), postProcessingConfig)
-    						.generate(sourceImages.get(0), i + 1, stories));
-    		}
-    	} else {
-	    	for(int i = 0; i < sourceImages.size(); i++) {    		
-	    		results.add(new Generator(chooseConfig(resolution), postProcessingConfig).generate(sourceImages.get(i), i + 1));	    		
-	    	}
+    /*
+     * Only the first story, generated exactly as fetchImages would generate it so the result is shared
+     * through the view cache.  Used where the time taken matters more than seeing every story.
+     */
+    public List<Map<String, BufferedImage>> fetchFirstStoryImages(final FileSelectionConfig fileSelectionConfig, final PostProcessingConfig postProcessingConfig, String resolution) throws FileNotFoundException, IOException {
+    	final File sourceFile = fileSelectionConfig.getFirstStorySourceFile();
+    	if (sourceFile == null) {
+    		throw new FileNotFoundException("Source File");
+    	}
+
+    	final String storyMethod = fileSelectionConfig.getStoryMethod();
+    	final int storiesForSingleImage = 
+    			fileSelectionConfig.getStories() > 1 && !"Individual Files".equals(storyMethod) && !"Tiled".equals(storyMethod)
+    				? fileSelectionConfig.getStories()
+    				: 1;
+
+    	final BufferedImage sourceImage = readSourceImage(sourceFile, resolution, storiesForSingleImage);
+    	final List<Map<String, BufferedImage>> generatedImages = new ArrayList<Map<String, BufferedImage>>();
+    	generatedImages.add(generateStory(resolution, postProcessingConfig, sourceImage, 1, storiesForSingleImage));
+    	return generatedImages;
+    }
+
+    /*
+     * Stories do not depend on each other until they are composited, so each is a task on the shared
+     * pool and they are generated together.  Results are joined in story order.  Tiled and Single File
+     * stories share one source, and with it the scaled and warped stages, so the first story is
+     * generated on its own to leave those stages in the stage cache for the rest.
+     */
+    private List<Map<String, BufferedImage>> generateMultiStoryImages(List<BufferedImage> storySourceImages, int storiesForSingleImage, final boolean sharedSource, final PostProcessingConfig postProcessingConfig, String resolution, Progress progress) {
+    	final List<StoryTask> storyTasks = new ArrayList<StoryTask>();
+    	for(int i = 0; i < storySourceImages.size(); i++) {
+    		storyTasks.add(new StoryTask(resolution, postProcessingConfig, storySourceImages.get(i), i + 1, storiesForSingleImage, progress));
     	}
-    	return results;
+
+    	return RowBands.invoke(new RecursiveTask<List<Map<String, BufferedImage>>>() {
+    		private static final long serialVersionUID = 1L;
+
+    		@Override
+    		protected List<Map<String, BufferedImage>> compute() {
+    			if (sharedSource) {
+    				storyTasks.get(0).invoke();
+    				invokeAll(storyTasks.subList(1, storyTasks.size()));
+    			} else {
+    				invokeAll(storyTasks);
+    			}
+    			final List<Map<String, BufferedImage>> results = new ArrayList<Map<String, BufferedImage>>();
+    			for(StoryTask storyTask : storyTasks) {
+    				results.add(storyTask.join());
+    			}
+    			return results;
+    		}
+    	});
+    }
+    
+    /* Timed separately from the Generator's own event, as a view cache hit never reaches the Generator */
+    private Map<String, BufferedImage> generateStory(String resolution, PostProcessingConfig postProcessingConfig, BufferedImage sourceImage, int story, int storiesForSingleImage) {
+    	final StageEvent event = StageEvent.begin("Fetch Story", resolution, null, story);
+    	final Map<String, BufferedImage> images = WallGenerator.getViewCache().generate(chooseConfig(resolution), postProcessingConfig, sourceImage, story, storiesForSingleImage);
+    	StageEvent.end(event, images.get("CloseFront"));
+    	return images;
     }
     
-    private List<BufferedImage> getSourceImages(List<File> sourceFiles) throws IOException {
+    private List<BufferedImage> getSourceImages(List<File> sourceFiles, String resolution, Progress progress) throws IOException {
     	final List<BufferedImage> sourceImages = new ArrayList<BufferedImage>();
     	for(int i = 0; i < sourceFiles.size(); i++) {
+    		progress.next("Reading source image " + (i + 1) + " of " + sourceFiles.size());
     		final File sourceFile = sourceFiles.get(i);
     		if (sourceFile != null) {
-    			sourceImages.add(ImageIO.read(sourceFile));
+    			sourceImages.add(readSourceImage(sourceFile, resolution, 1));
     		} else {
     			sourceImages.add(new BufferedImage(50, 50, BufferedImage.TYPE_INT_ARGB));
     		}
@@ -106,7 +168,71 @@ public class WallGenerationService {
     	return sourceImages;
     }
     
+    /* Decodes at no more than about twice the size the source will be scaled to */
+    private BufferedImage readSourceImage(File sourceFile, String resolution, int storiesForSingleImage) throws IOException {
+    	final Dimension wallSize = chooseConfig(resolution).getWallSize("CloseFront");
+    	final Dimension scaledSize = new Dimension(wallSize.width, wallSize.height * storiesForSingleImage);
+    	final StageEvent event = StageEvent.begin("Read Source", resolution, sourceFile.getName(), 0);
+    	final BufferedImage sourceImage = WallGenerator.getSourceImageCache().read(sourceFile, scaledSize);
+    	StageEvent.end(event, sourceImage);
+    	return sourceImage;
+    }
+    
     private Config chooseConfig(String resolution) {
     	return WallGenerator.getConfigManager().getConfig(resolution);
     }
+    
+    /* Carries the cancellation of the requesting thread onto the pool thread generating the story */
+    private class StoryTask extends RecursiveTask<Map<String, BufferedImage>> {
+    	private static final long serialVersionUID = 1L;
+
+    	private final Cancellation cancellation = Cancellation.getCurrent();
+    	private final String resolution;
+    	private final PostProcessingConfig postProcessingConfig;
+    	private final BufferedImage sourceImage;
+    	private final int story;
+    	private final int storiesForSingleImage;
+    	private final Progress progress;
+
+    	StoryTask(String resolution, PostProcessingConfig postProcessingConfig, BufferedImage sourceImage, int story, int storiesForSingleImage, Progress progress) {
+    		this.resolution = resolution;
+    		this.postProcessingConfig = postProcessingConfig;
+    		this.sourceImage = sourceImage;
+    		this.story = story;
+    		this.storiesForSingleImage = storiesForSingleImage;
+    		this.progress = progress;
+    	}
+
+    	@Override
+    	protected Map<String, BufferedImage> compute() {
+    		final Cancellation previous = Cancellation.install(cancellation);
+    		try {
+    			progress.next("Generating story " + story);
+    			return generateStory(resolution, postProcessingConfig, sourceImage, story, storiesForSingleImage);
+    		} finally {
+    			Cancellation.install(previous);
+    		}
+    	}
+    }
+    
+    /* Stages are also where a cancelled request stops when no pixel loop is running */
+    private static class Progress {
+    	private final ProgressListener listener;
+    	private final int totalSteps;
+    	private int completedSteps = 0;
+    	
+    	Progress(ProgressListener listener, int totalSteps) {
+    		this.listener = listener;
+    		this.totalSteps = totalSteps;
+    	}
+    	
+    	/* Stories report from pool threads, so steps are counted one at a time */
+    	synchronized void next(String stage) {
+    		Cancellation.checkCurrent();
+    		if (listener != null) {
+    			listener.progress(stage, completedSteps, totalSteps);
+    		}
+    		completedSteps++;
+    	}
+    }
 }
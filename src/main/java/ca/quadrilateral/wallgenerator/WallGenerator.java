@@ -37,17 +37,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ca.quadrilateral.wallgenerator.config.ConfigManager;
+import ca.quadrilateral.wallgenerator.image.SourceImageCache;
 import ca.quadrilateral.wallgenerator.ui.WallGeneratorFrame;
 
 public class WallGenerator {
 	private static final Logger log = LoggerFactory.getLogger(WallGeneratorFrame.class);
     private static ConfigManager configManager = null;
+    private static final SourceImageCache sourceImageCache = new SourceImageCache();
+    private static final ViewCache viewCache = new ViewCache();
 
     public static void main(String[] args) throws Exception {
+    	if (args.length > 0) {
+    		System.setProperty("java.awt.headless", "true");
+    	}
+    	
     	log.info("Wall Generation Application Initialized");
     	
         configManager = new ConfigManager();
         configManager.loadConfig();
+        
+        if (args.length > 0) {
+        	final int exitCode = new BatchRenderer(configManager, System.out).run(args);
+        	System.exit(exitCode);
+        }
 
         setLookAndFeel();
         
@@ -77,6 +89,19 @@ public class WallGenerator {
     public static ConfigManager getConfigManager() {
         return configManager;
     }
+
+    /* For code that runs without main, such as the benchmarks */
+    static void setConfigManager(ConfigManager manager) {
+        configManager = manager;
+    }
+    
+    public static SourceImageCache getSourceImageCache() {
+        return sourceImageCache;
+    }
+    
+    public static ViewCache getViewCache() {
+        return viewCache;
+    }
     
     public static ImageIcon loadImageIcon(String fileName) {
     	try {
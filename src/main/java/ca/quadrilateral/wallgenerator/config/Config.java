@@ -29,9 +29,11 @@ or implied, of Daniel Morton.
 package ca.quadrilateral.wallgenerator.config;
 
 import java.awt.Dimension;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 import javax.media.jai.PerspectiveTransform;
 import javax.xml.xpath.XPathConstants;
@@ -41,6 +43,8 @@ import org.apache.commons.lang.StringUtils;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import ca.quadrilateral.wallgenerator.image.PerspectiveWarp;
+import ca.quadrilateral.wallgenerator.image.WarpTable;
 import ca.switchcase.commons.util.XmlDomUtilities;
 
 public class Config {
@@ -49,6 +53,8 @@ public class Config {
     private Map<String, Dimension> wallSizes = new HashMap<String, Dimension>();
     private Map<String, PerspectiveTransform> transforms = new HashMap<String, PerspectiveTransform>();
     private Map<String, OutputConfig> outputConfigs = new HashMap<String, OutputConfig>();
+    private final Map<String, WarpTable> warpTables = new HashMap<String, WarpTable>();
+    private int warpTableGeneration = 0;
     
     public Config(String resolution, int sortOrder) {
         this.resolution = resolution;
@@ -87,6 +93,61 @@ public class Config {
         return transforms.get(transformType);
     }
 
+    /*
+     * The table is built outside the lock, so one transform being built does not hold up the others.
+     * Two threads may build the same table at once; the first one stored is kept.  A table built
+     * while the transforms were being replaced is returned but not stored.
+     */
+    public WarpTable getWarpTable(String transformType, String wallType, int sourceWidth, int sourceHeight) {
+        final Dimension wallSize = getWallSize(wallType);
+
+        final int generation;
+        synchronized (warpTables) {
+            final WarpTable warpTable = warpTables.get(transformType);
+            if (warpTable != null && warpTable.matches(sourceWidth, sourceHeight, wallSize.width, wallSize.height)) {
+                return warpTable;
+            }
+            generation = warpTableGeneration;
+        }
+
+        final WarpTable warpTable = new PerspectiveWarp(getTransform(transformType)).createTable(sourceWidth, sourceHeight, wallSize.width, wallSize.height);
+
+        synchronized (warpTables) {
+            final WarpTable storedTable = warpTables.get(transformType);
+            if (storedTable != null && storedTable.matches(sourceWidth, sourceHeight, wallSize.width, wallSize.height)) {
+                return storedTable;
+            }
+            if (generation == warpTableGeneration) {
+                warpTables.put(transformType, warpTable);
+            }
+        }
+        return warpTable;
+    }
+
+    /* Describes everything in this config that affects generated views, for use in cache keys */
+    public String getFingerprint() {
+        final StringBuilder fingerprint = new StringBuilder(resolution);
+        for(Map.Entry<String, Dimension> wallSize : new TreeMap<String, Dimension>(wallSizes).entrySet()) {
+            fingerprint.append(';').append(wallSize.getKey())
+                .append('=').append(wallSize.getValue().width)
+                .append('x').append(wallSize.getValue().height);
+        }
+        for(Map.Entry<String, PerspectiveTransform> transform : new TreeMap<String, PerspectiveTransform>(transforms).entrySet()) {
+            fingerprint.append(';').append(transform.getKey()).append('=');
+            for(double[] row : transform.getValue().getMatrix(new double[3][3])) {
+                fingerprint.append(Arrays.toString(row));
+            }
+        }
+        return fingerprint.toString();
+    }
+
+    public void invalidateWarpTables() {
+        synchronized (warpTables) {
+            warpTables.clear();
+            warpTableGeneration++;
+        }
+    }
+
     public void addWallSize(Node wallSizeNode) {
         final String wallType = XmlDomUtilities.getAttributeValue(wallSizeNode, "type");
         final Dimension wallSize = new Dimension(
@@ -94,6 +155,7 @@ public class Config {
                                 XmlDomUtilities.getAttributeValueAsInteger(wallSizeNode, "height")
                             );
         wallSizes.put(wallType, wallSize);
+        invalidateWarpTables();
     }
 
     public void addTransform(Node transformNode) {
@@ -121,6 +183,7 @@ public class Config {
             );
 
         transforms.put(transformType, transform);
+        invalidateWarpTables();
     }
 
     public void addOutputConfig(Node outputConfigNode) {
@@ -72,6 +72,9 @@ public class ConfigManager {
     }
 
     private void clearConfig() {
+        for(Config config : configs.values()) {
+            config.invalidateWarpTables();
+        }
         configs.clear();
         outputFileConfigs.clear();
     }
@@ -82,7 +85,10 @@ public class ConfigManager {
     }
 
     public void loadConfig() throws Exception {
-        final File configFile = new File("config.xml");
+        loadConfig(new File("config.xml"));
+    }
+
+    public void loadConfig(File configFile) throws Exception {
         if (!configFile.canRead()) {
             throw new RuntimeException("Can not load config.xml file!");
         }
@@ -28,23 +28,25 @@ or implied, of Daniel Morton.
 
 package ca.quadrilateral.wallgenerator.filechooser;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
 
-import javax.imageio.ImageIO;
 import javax.swing.JFileChooser;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ca.quadrilateral.wallgenerator.WallGenerator;
 import ca.quadrilateral.wallgenerator.filefilter.ImageIOSupportedImageTypeFileFilter;
 import ca.quadrilateral.wallgenerator.ui.ImagePreviewPanel;
 
 public class SourceImageFileChooser extends JFileChooser {
 	private static final Logger log = LoggerFactory.getLogger(SourceImageFileChooser.class);
+	private static final Dimension PREVIEW_SIZE = new Dimension(112, 134);
 	
 	private final ImagePreviewPanel imagePreviewPanel;
 	
@@ -53,7 +55,7 @@ public class SourceImageFileChooser extends JFileChooser {
 		
 		this.setCurrentDirectory(new File(executionDirectory));
 		this.setMultiSelectionEnabled(false);
-		imagePreviewPanel = new ImagePreviewPanel(112, 134);
+		imagePreviewPanel = new ImagePreviewPanel(PREVIEW_SIZE.width, PREVIEW_SIZE.height);
 		this.setAccessory(imagePreviewPanel);
         this.setDialogType(JFileChooser.OPEN_DIALOG);
         this.setFileSelectionMode(JFileChooser.FILES_ONLY);
@@ -73,7 +75,7 @@ public class SourceImageFileChooser extends JFileChooser {
 					final File selectedFile = (File)evt.getNewValue();
 					try {
 						if (selectedFile != null) {
-							newImage = ImageIO.read(selectedFile);							
+							newImage = WallGenerator.getSourceImageCache().read(selectedFile, PREVIEW_SIZE);
 						} else {
 							newImage = null;
 						}
@@ -0,0 +1,170 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+
+package ca.quadrilateral.wallgenerator.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+public final class ArgbRaster {
+    private final int[] data;
+    private final int offset;
+    private final int scanlineStride;
+    private final int width;
+    private final int height;
+
+    private ArgbRaster(int[] data, int offset, int scanlineStride, int width, int height) {
+        this.data = data;
+        this.offset = offset;
+        this.scanlineStride = scanlineStride;
+        this.width = width;
+        this.height = height;
+    }
+
+    public static ArgbRaster forReading(BufferedImage image) {
+        final ArgbRaster raster = wrap(image);
+        if (raster != null) {
+            return raster;
+        }
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        return new ArgbRaster(image.getRGB(0, 0, width, height, null, 0, width), 0, width, width, height);
+    }
+
+    /* Like forReading, but also wraps TYPE_INT_RGB rasters directly; their alpha bits are undefined */
+    public static ArgbRaster forReadingColor(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            final ArgbRaster raster = wrapIntRaster(image);
+            if (raster != null) {
+                return raster;
+            }
+        }
+        return forReading(image);
+    }
+
+    public static ArgbRaster forWriting(BufferedImage image) {
+        final ArgbRaster raster = wrap(image);
+        if (raster == null) {
+            throw new IllegalArgumentException("Image must be of type TYPE_INT_ARGB to be written directly.");
+        }
+        return raster;
+    }
+
+    private static ArgbRaster wrap(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+        return wrapIntRaster(image);
+    }
+
+    private static ArgbRaster wrapIntRaster(BufferedImage image) {
+        final WritableRaster raster = image.getRaster();
+        if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel) || !(raster.getDataBuffer() instanceof DataBufferInt)) {
+            return null;
+        }
+
+        final SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel)raster.getSampleModel();
+        final DataBufferInt dataBuffer = (DataBufferInt)raster.getDataBuffer();
+        final int offset = dataBuffer.getOffset() + sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+
+        return new ArgbRaster(dataBuffer.getData(), offset, sampleModel.getScanlineStride(), image.getWidth(), image.getHeight());
+    }
+
+    public int[] getData() {
+        return this.data;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    public int getScanlineStride() {
+        return this.scanlineStride;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public boolean isPacked() {
+        return this.offset == 0 && this.scanlineStride == this.width && this.data.length == this.width * this.height;
+    }
+
+    public int[] toPackedArray() {
+        if (isPacked()) {
+            return this.data;
+        }
+
+        final int[] packed = new int[this.width * this.height];
+        for(int y = 0; y < this.height; y++) {
+            System.arraycopy(this.data, indexOf(0, y), packed, y * this.width, this.width);
+        }
+        return packed;
+    }
+
+    public int indexOf(int x, int y) {
+        return this.offset + (y * this.scanlineStride) + x;
+    }
+
+    /* The pixel drawImage leaves when it copies this one onto a transparent image: translucent
+     * colours go through premultiplied form and transparent pixels lose their colour */
+    public static int copyPixel(int pixel) {
+        final int alpha = pixel >>> 24;
+        if (alpha == 255) {
+            return pixel;
+        } else if (alpha == 0) {
+            return 0;
+        }
+        return (pixel & 0xFF000000)
+             | (unpremultiply(premultiply(alpha, (pixel >> 16) & 0xFF), alpha) << 16)
+             | (unpremultiply(premultiply(alpha, (pixel >> 8) & 0xFF), alpha) << 8)
+             | unpremultiply(premultiply(alpha, pixel & 0xFF), alpha);
+    }
+
+    /* Same rounding as the Java2D mul8table */
+    private static int premultiply(int alpha, int value) {
+        return ((alpha * value * 0x10101) + 0x800000) >>> 24;
+    }
+
+    /* Same rounding as the Java2D div8table */
+    private static int unpremultiply(int value, int alpha) {
+        if (value >= alpha) {
+            return 255;
+        }
+        final long increment = (0xFF000000L + (alpha / 2)) / alpha;
+        return (int)(((value * increment) + 0x800000L) >>> 24);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+
+package ca.quadrilateral.wallgenerator.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.awt.image.WritableRaster;
+
+/*
+ * Runs an EDGE_NO_OP ConvolveOp over bands of rows.  Each band is convolved together with the rows
+ * the kernel reaches into from its neighbours, and only the band's own rows are kept, so the
+ * result matches filtering the whole image at once.
+ */
+public final class BandedConvolution {
+    private final ConvolveOp convolveOp;
+    private final int rowPadding;
+
+    public BandedConvolution(Kernel kernel) {
+        this.convolveOp = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null);
+        this.rowPadding = Math.max(kernel.getYOrigin(), kernel.getHeight() - 1 - kernel.getYOrigin());
+    }
+
+    public BufferedImage filter(final BufferedImage sourceImage) {
+        final BufferedImage destinationImage = convolveOp.createCompatibleDestImage(sourceImage, null);
+        final WritableRaster destinationRaster = destinationImage.getRaster();
+        final int width = sourceImage.getWidth();
+        final int height = sourceImage.getHeight();
+
+        RowBands.process(width, height, new RowBands.Task() {
+            @Override
+            public void process(int startRow, int endRow) {
+                if (startRow == 0 && endRow == height) {
+                    convolveOp.filter(sourceImage, destinationImage);
+                    return;
+                }
+
+                final int bandTop = Math.max(0, startRow - rowPadding);
+                final int bandBottom = Math.min(height, endRow + rowPadding);
+                final BufferedImage band = convolveOp.filter(sourceImage.getSubimage(0, bandTop, width, bandBottom - bandTop), null);
+
+                destinationRaster.setRect(0, startRow, band.getRaster().createChild(0, startRow - bandTop, width, endRow - startRow, 0, 0, null));
+            }
+        });
+
+        return destinationImage;
+    }
+}
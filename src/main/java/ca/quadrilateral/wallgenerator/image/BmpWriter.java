@@ -0,0 +1,173 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Writes uncompressed 24-bit or 32-bit BMP files straight from the image's int[] raster.  The
+ * 24-bit files are byte for byte what ImageIO writes for a TYPE_INT_RGB image: a 40 byte info
+ * header followed by bottom-up rows padded to four bytes.  The 32-bit files use a V4 header with
+ * bit field masks so the alpha channel survives.  Rows are packed into a direct buffer that each
+ * thread keeps between files and handed to the file channel whenever it fills up.
+ */
+public final class BmpWriter {
+    private static final int FILE_HEADER_SIZE = 14;
+    private static final int INFO_HEADER_SIZE = 40;
+    private static final int V4_HEADER_SIZE = 108;
+    private static final int BI_RGB = 0;
+    private static final int BI_BITFIELDS = 3;
+    private static final int LCS_SRGB = 0x73524742;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    };
+
+    private final int bitsPerPixel;
+
+    /* 32 bits per pixel for images with an alpha channel, 24 otherwise */
+    public BmpWriter(BufferedImage image) {
+        this(image.getColorModel().hasAlpha() ? 32 : 24);
+    }
+
+    public BmpWriter(int bitsPerPixel) {
+        if (bitsPerPixel != 24 && bitsPerPixel != 32) {
+            throw new IllegalArgumentException("BMP output must be 24 or 32 bits per pixel: " + bitsPerPixel);
+        }
+        this.bitsPerPixel = bitsPerPixel;
+    }
+
+    public void write(BufferedImage image, File file) throws IOException {
+        final ArgbRaster raster = ArgbRaster.forReadingColor(image);
+        final int width = raster.getWidth();
+        final int height = raster.getHeight();
+        final int rowBytes = (((width * bitsPerPixel) + 31) / 32) * 4;
+        final int headerSize = FILE_HEADER_SIZE + (bitsPerPixel == 32 ? V4_HEADER_SIZE : INFO_HEADER_SIZE);
+        final long imageSize = (long)rowBytes * height;
+        if (headerSize + imageSize > Integer.MAX_VALUE) {
+            throw new IOException("Image is too large to be written as a BMP: " + width + "x" + height);
+        }
+
+        final ByteBuffer buffer = getBuffer(Math.max(headerSize, rowBytes));
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            putHeader(buffer, width, height, headerSize, (int)imageSize);
+
+            final int[] data = raster.getData();
+            final int opaque = image.getColorModel().hasAlpha() ? 0 : 0xFF000000;
+            for(int y = height - 1; y >= 0; y--) {
+                if (buffer.remaining() < rowBytes) {
+                    drain(buffer, channel);
+                }
+
+                final int rowStart = raster.indexOf(0, y);
+                final int rowEnd = rowStart + width;
+                if (bitsPerPixel == 32) {
+                    for(int i = rowStart; i < rowEnd; i++) {
+                        buffer.putInt(data[i] | opaque);
+                    }
+                } else {
+                    for(int i = rowStart; i < rowEnd; i++) {
+                        final int pixel = data[i];
+                        buffer.put((byte)pixel);
+                        buffer.put((byte)(pixel >> 8));
+                        buffer.put((byte)(pixel >> 16));
+                    }
+                    for(int padding = width * 3; padding < rowBytes; padding++) {
+                        buffer.put((byte)0);
+                    }
+                }
+            }
+            drain(buffer, channel);
+        } finally {
+            buffer.clear();
+            channel.close();
+        }
+    }
+
+    private void putHeader(ByteBuffer buffer, int width, int height, int headerSize, int imageSize) {
+        buffer.put((byte)'B');
+        buffer.put((byte)'M');
+        buffer.putInt(headerSize + imageSize);
+        buffer.putInt(0);
+        buffer.putInt(headerSize);
+
+        buffer.putInt(headerSize - FILE_HEADER_SIZE);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putShort((short)1);
+        buffer.putShort((short)bitsPerPixel);
+        buffer.putInt(bitsPerPixel == 32 ? BI_BITFIELDS : BI_RGB);
+        buffer.putInt(imageSize);
+        buffer.putInt(0);
+        buffer.putInt(0);
+        buffer.putInt(0);
+        buffer.putInt(0);
+
+        if (bitsPerPixel == 32) {
+            buffer.putInt(0x00FF0000);
+            buffer.putInt(0x0000FF00);
+            buffer.putInt(0x000000FF);
+            buffer.putInt(0xFF000000);
+            buffer.putInt(LCS_SRGB);
+            /* Colour space end points and gamma are unused with sRGB */
+            for(int i = 0; i < 12; i++) {
+                buffer.putInt(0);
+            }
+        }
+    }
+
+    private static ByteBuffer getBuffer(int minimumSize) {
+        ByteBuffer buffer = buffers.get();
+        if (buffer.capacity() < minimumSize) {
+            buffer = ByteBuffer.allocateDirect(minimumSize).order(ByteOrder.LITTLE_ENDIAN);
+            buffers.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
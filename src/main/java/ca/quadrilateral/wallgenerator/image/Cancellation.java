@@ -0,0 +1,80 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator.image;
+
+import java.util.concurrent.CancellationException;
+
+/*
+ * A cancel flag shared by all the work done for one request.  The thread that starts the work
+ * installs it, and RowBands and the generator's tasks carry it onto the pool threads they run on.
+ * Every band checks it before running, so a cancelled render stops within a band and unwinds
+ * with a CancellationException.
+ */
+public final class Cancellation {
+    private static final ThreadLocal<Cancellation> current = new ThreadLocal<Cancellation>();
+
+    private volatile boolean cancelled = false;
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public void check() {
+        if (this.cancelled) {
+            throw new CancellationException("Generation cancelled");
+        }
+    }
+
+    /* The token installed on this thread, or null when the work can not be cancelled */
+    public static Cancellation getCurrent() {
+        return current.get();
+    }
+
+    public static void checkCurrent() {
+        final Cancellation cancellation = current.get();
+        if (cancellation != null) {
+            cancellation.check();
+        }
+    }
+
+    /* Installs the token on this thread and returns the one it replaces so it can be put back */
+    public static Cancellation install(Cancellation cancellation) {
+        final Cancellation previous = current.get();
+        if (cancellation == null) {
+            current.remove();
+        } else {
+            current.set(cancellation);
+        }
+        return previous;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+
+package ca.quadrilateral.wallgenerator.image;
+
+import java.util.Arrays;
+
+/*
+ * Half-open [start, end) extents of the covered pixels of an image, per row and per column.
+ * Rows or columns with no coverage have start == end == 0.
+ */
+public final class CoverageSpans {
+    private final int width;
+    private final int height;
+    private final int[] rowStarts;
+    private final int[] rowEnds;
+    private final int[] columnStarts;
+    private final int[] columnEnds;
+
+    private CoverageSpans(int width, int height, int[] rowStarts, int[] rowEnds, int[] columnStarts, int[] columnEnds) {
+        this.width = width;
+        this.height = height;
+        this.rowStarts = rowStarts;
+        this.rowEnds = rowEnds;
+        this.columnStarts = columnStarts;
+        this.columnEnds = columnEnds;
+    }
+
+    public static CoverageSpans fromSourceIndexes(int[] sourceIndexes, int width, int height) {
+        final int[] rowStarts = new int[height];
+        final int[] rowEnds = new int[height];
+        final int[] columnStarts = new int[width];
+        final int[] columnEnds = new int[width];
+
+        Arrays.fill(columnStarts, Integer.MAX_VALUE);
+
+        for(int y = 0; y < height; y++) {
+            final int row = y * width;
+            int start = -1;
+            int end = -1;
+            for(int x = 0; x < width; x++) {
+                if (sourceIndexes[row + x] != WarpTable.NOT_COVERED) {
+                    if (start == -1) {
+                        start = x;
+                    }
+                    end = x + 1;
+
+                    if (y < columnStarts[x]) {
+                        columnStarts[x] = y;
+                    }
+                    columnEnds[x] = y + 1;
+                }
+            }
+            if (start != -1) {
+                rowStarts[y] = start;
+                rowEnds[y] = end;
+            }
+        }
+
+        for(int x = 0; x < width; x++) {
+            if (columnStarts[x] == Integer.MAX_VALUE) {
+                columnStarts[x] = 0;
+            }
+        }
+
+        return new CoverageSpans(width, height, rowStarts, rowEnds, columnStarts, columnEnds);
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public int getRowStart(int y) {
+        return this.rowStarts[y];
+    }
+
+    public int getRowEnd(int y) {
+        return this.rowEnds[y];
+    }
+
+    public int getColumnStart(int x) {
+        return this.columnStarts[x];
+    }
+
+    public int getColumnEnd(int x) {
+        return this.columnEnds[x];
+    }
+
+    public boolean isRowEmpty(int y) {
+        return this.rowStarts[y] == this.rowEnds[y];
+    }
+
+    public boolean isColumnEmpty(int x) {
+        return this.columnStarts[x] == this.columnEnds[x];
+    }
+}
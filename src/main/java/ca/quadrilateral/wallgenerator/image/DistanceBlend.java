@@ -0,0 +1,149 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator.image;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+/*
+ * Blends a colour over an image with an opacity that changes linearly from one side to the other,
+ * keeping the alpha of the original pixels.  The opacity of each column is stored as an 8-bit
+ * weight and the arithmetic follows Java2D's SrcOver with extra alpha, including the premultiplied
+ * round trip of translucent colours, so the result is the same as copying the image with drawImage
+ * and compositing a one pixel strip of the colour over every column.
+ */
+public final class DistanceBlend {
+    private final int[] weights;
+    private final int[] blendColors;
+
+    public DistanceBlend(int width, float startAlpha, float endAlpha, boolean leftToRight, Color blendColor) {
+        this.weights = new int[width];
+        this.blendColors = new int[width];
+
+        final float delta = (endAlpha - startAlpha) / width;
+        for(int i = 0; i < width; i++) {
+            final float alpha = startAlpha + (delta * i);
+            final int column = leftToRight ? i : (width - 1) - i;
+            final int weight = Math.max(0, Math.min(255, (int)(alpha * 255.0 + 0.5)));
+
+            this.weights[column] = weight;
+            this.blendColors[column] = (mul8(weight, blendColor.getRed()) << 16)
+                                     | (mul8(weight, blendColor.getGreen()) << 8)
+                                     | mul8(weight, blendColor.getBlue());
+        }
+    }
+
+    public int getWidth() {
+        return this.weights.length;
+    }
+
+    public int apply(int pixel, int column) {
+        final int alpha = pixel >>> 24;
+        final int weight = weights[column];
+        if (alpha == 0) {
+            /* Invisible, but the warps interpolate colour channels so keep what the Java2D copy left behind */
+            if (weight == 0) {
+                return 0;
+            }
+            final int blendColor = blendColors[column];
+            return (div8((blendColor >> 16) & 0xFF, weight) << 16)
+                 | (div8((blendColor >> 8) & 0xFF, weight) << 8)
+                 | div8(blendColor & 0xFF, weight);
+        }
+
+        int red = (pixel >> 16) & 0xFF;
+        int green = (pixel >> 8) & 0xFF;
+        int blue = pixel & 0xFF;
+        if (alpha != 255) {
+            /* Java2D copies translucent pixels through premultiplied form, so their colours are rounded even where nothing is blended */
+            red = div8(mul8(alpha, red), alpha);
+            green = div8(mul8(alpha, green), alpha);
+            blue = div8(mul8(alpha, blue), alpha);
+        }
+
+        if (weight != 0) {
+            final int blendColor = blendColors[column];
+            final int inverseWeight = 255 - weight;
+            if (alpha == 255) {
+                red = ((blendColor >> 16) & 0xFF) + mul8(inverseWeight, red);
+                green = ((blendColor >> 8) & 0xFF) + mul8(inverseWeight, green);
+                blue = (blendColor & 0xFF) + mul8(inverseWeight, blue);
+            } else {
+                final int destinationWeight = mul8(inverseWeight, alpha);
+                final int resultAlpha = weight + destinationWeight;
+                red = div8(((blendColor >> 16) & 0xFF) + mul8(destinationWeight, red), resultAlpha);
+                green = div8(((blendColor >> 8) & 0xFF) + mul8(destinationWeight, green), resultAlpha);
+                blue = div8((blendColor & 0xFF) + mul8(destinationWeight, blue), resultAlpha);
+            }
+        }
+        return (pixel & 0xFF000000) | (red << 16) | (green << 8) | blue;
+    }
+
+    public BufferedImage apply(BufferedImage sourceImage) {
+        if (sourceImage.getWidth() != getWidth()) {
+            throw new IllegalArgumentException("Source image is " + sourceImage.getWidth() + " pixels wide but blend was built for " + getWidth());
+        }
+
+        final ArgbRaster source = ArgbRaster.forReading(sourceImage);
+        final BufferedImage destinationImage = new BufferedImage(sourceImage.getWidth(), sourceImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        final ArgbRaster destination = ArgbRaster.forWriting(destinationImage);
+        final int[] sourceData = source.getData();
+        final int[] destinationData = destination.getData();
+        final int width = getWidth();
+
+        RowBands.process(width, sourceImage.getHeight(), new RowBands.Task() {
+            @Override
+            public void process(int startRow, int endRow) {
+                for(int y = startRow; y < endRow; y++) {
+                    final int sourceRow = source.indexOf(0, y);
+                    final int destinationRow = destination.indexOf(0, y);
+                    for(int x = 0; x < width; x++) {
+                        destinationData[destinationRow + x] = apply(sourceData[sourceRow + x], x);
+                    }
+                }
+            }
+        });
+
+        return destinationImage;
+    }
+
+    /* Same rounding as the Java2D mul8table */
+    private static int mul8(int a, int b) {
+        return ((a * b * 0x10101) + 0x800000) >>> 24;
+    }
+
+    /* Same rounding as the Java2D div8table */
+    private static int div8(int value, int alpha) {
+        if (value >= alpha) {
+            return 255;
+        }
+        final long increment = (0xFF000000L + (alpha / 2)) / alpha;
+        return (int)(((value * increment) + 0x800000L) >>> 24);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+
+package ca.quadrilateral.wallgenerator.image;
+
+import java.awt.geom.NoninvertibleTransformException;
+import java.util.Arrays;
+
+import javax.media.jai.PerspectiveTransform;
+
+/*
+ * Builds the nearest-sample inverse mapping PerspectiveTransform.inverseTransform would produce for
+ * every destination pixel.  The adjoint coefficients are computed once and evaluated in the same
+ * order JAI uses, so the truncated source coordinates are bit-for-bit identical.
+ */
+public final class PerspectiveWarp {
+    private static final double PERSPECTIVE_DIVIDE_EPSILON = 1.0e-10;
+
+    private final double xCoefficientX;
+    private final double xCoefficientY;
+    private final double xConstant;
+    private final double yCoefficientX;
+    private final double yCoefficientY;
+    private final double yConstant;
+    private final double wCoefficientX;
+    private final double wCoefficientY;
+    private final double wConstant;
+    private final double[] forwardMatrix;
+
+    public PerspectiveWarp(PerspectiveTransform transform) {
+        final double[] m = transform.getMatrix((double[])null);
+        this.forwardMatrix = m;
+        final double m00 = m[0], m01 = m[1], m02 = m[2];
+        final double m10 = m[3], m11 = m[4], m12 = m[5];
+        final double m20 = m[6], m21 = m[7], m22 = m[8];
+
+        this.xCoefficientX = m11 * m22 - m12 * m21;
+        this.xCoefficientY = m02 * m21 - m01 * m22;
+        this.xConstant = m01 * m12 - m02 * m11;
+        this.yCoefficientX = m12 * m20 - m10 * m22;
+        this.yCoefficientY = m00 * m22 - m02 * m20;
+        this.yConstant = m02 * m10 - m00 * m12;
+        this.wCoefficientX = m10 * m21 - m11 * m20;
+        this.wCoefficientY = m01 * m20 - m00 * m21;
+        this.wConstant = m00 * m11 - m01 * m10;
+    }
+
+    public WarpTable createTable(int sourceWidth, int sourceHeight, int destinationWidth, int destinationHeight) {
+        final int[] sourceIndexes = new int[destinationWidth * destinationHeight];
+        Arrays.fill(sourceIndexes, WarpTable.NOT_COVERED);
+
+        final double[] quad = projectSourceBounds(sourceWidth, sourceHeight);
+
+        for(int y = 0; y < destinationHeight; y++) {
+            final double rowX = this.xCoefficientY * y;
+            final double rowY = this.yCoefficientY * y;
+            final double rowW = this.wCoefficientY * y;
+            final int destinationRow = y * destinationWidth;
+
+            int startX = 0;
+            int endX = destinationWidth;
+            if (quad != null) {
+                final double[] extent = getRowExtent(quad, y - 1.0, y + 1.0);
+                if (extent == null) {
+                    continue;
+                }
+                startX = Math.max(0, (int)Math.floor(extent[0]) - 1);
+                endX = Math.min(destinationWidth, (int)Math.ceil(extent[1]) + 2);
+            }
+
+            double dx = startX;
+            for(int x = startX; x < endX; x++, dx += 1.0) {
+                final double w = this.wCoefficientX * dx + rowW + this.wConstant;
+                if ((w < 0 ? -w : w) < PERSPECTIVE_DIVIDE_EPSILON) {
+                    throw new RuntimeException("Error transforming image!", new NoninvertibleTransformException("Perspective divide by zero at " + x + "," + y));
+                }
+
+                final int sourceX = (int)((this.xCoefficientX * dx + rowX + this.xConstant) / w);
+                final int sourceY = (int)((this.yCoefficientX * dx + rowY + this.yConstant) / w);
+
+                if (sourceX >= 0 && sourceY >= 0 && sourceX < sourceWidth && sourceY < sourceHeight) {
+                    sourceIndexes[destinationRow + x] = (sourceY * sourceWidth) + sourceX;
+                }
+            }
+        }
+
+        return new WarpTable(sourceWidth, sourceHeight, destinationWidth, destinationHeight, sourceIndexes,
+                CoverageSpans.fromSourceIndexes(sourceIndexes, destinationWidth, destinationHeight));
+    }
+
+    /*
+     * Source coordinates in (-1, width) x (-1, height) truncate to valid pixels, so the covered
+     * destination region lies inside the forward projection of that rectangle.  Returns null when
+     * the projection crosses the horizon and the quad can not be used to bound the scan.
+     */
+    private double[] projectSourceBounds(int sourceWidth, int sourceHeight) {
+        final double[] corners = {-1.0, -1.0, sourceWidth, -1.0, sourceWidth, sourceHeight, -1.0, sourceHeight};
+        final double[] m = this.forwardMatrix;
+        final double[] quad = new double[8];
+
+        double firstW = 0.0;
+        for(int i = 0; i < 8; i += 2) {
+            final double w = m[6] * corners[i] + m[7] * corners[i + 1] + m[8];
+            if ((w < 0 ? -w : w) < PERSPECTIVE_DIVIDE_EPSILON || (i > 0 && (w < 0) != (firstW < 0))) {
+                return null;
+            }
+            if (i == 0) {
+                firstW = w;
+            }
+            quad[i] = (m[0] * corners[i] + m[1] * corners[i + 1] + m[2]) / w;
+            quad[i + 1] = (m[3] * corners[i] + m[4] * corners[i + 1] + m[5]) / w;
+        }
+        return quad;
+    }
+
+    private double[] getRowExtent(double[] quad, double top, double bottom) {
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+
+        for(int i = 0; i < 8; i += 2) {
+            final double x0 = quad[i];
+            final double y0 = quad[i + 1];
+            final double x1 = quad[(i + 2) % 8];
+            final double y1 = quad[(i + 3) % 8];
+
+            double tMin = 0.0;
+            double tMax = 1.0;
+            if (y0 == y1) {
+                if (y0 < top || y0 > bottom) {
+                    continue;
+                }
+            } else {
+                final double tTop = (top - y0) / (y1 - y0);
+                final double tBottom = (bottom - y0) / (y1 - y0);
+                tMin = Math.max(tMin, Math.min(tTop, tBottom));
+                tMax = Math.min(tMax, Math.max(tTop, tBottom));
+                if (tMin > tMax) {
+                    continue;
+                }
+            }
+
+            final double xa = x0 + (x1 - x0) * tMin;
+            final double xb = x0 + (x1 - x0) * tMax;
+            minX = Math.min(minX, Math.min(xa, xb));
+            maxX = Math.max(maxX, Math.max(xa, xb));
+        }
+
+        if (minX > maxX) {
+            return null;
+        }
+        return new double[] {minX, maxX};
+    }
+}
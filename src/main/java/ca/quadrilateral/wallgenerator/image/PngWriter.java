@@ -0,0 +1,374 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator.image;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * Writes 8-bit RGB or RGBA PNG files.  Rows are read straight from the image's int[] raster and
+ * each row gets the filter that minimises the sum of its absolute filtered bytes.  The filtered
+ * data is cut into blocks of rows that are deflated in parallel; every block is primed with the
+ * last 32K of the block before it and ends with a sync flush, so the blocks join into a single
+ * zlib stream that any decoder reads as usual.  The level (0-9) is the Deflater level; level 0
+ * also turns off filtering.
+ */
+public final class PngWriter {
+    public static final String LEVEL_PROPERTY = "wallgen.pngLevel";
+
+    private static final byte[] SIGNATURE = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int BLOCK_BYTES = 256 * 1024;
+    private static final int CHUNK_BYTES = 256;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    private static final int DEFAULT_LEVEL = 4;
+
+    private final int level;
+
+    public PngWriter() {
+        this(Integer.getInteger(LEVEL_PROPERTY, DEFAULT_LEVEL));
+    }
+
+    public PngWriter(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("PNG compression level must be between 0 and 9: " + level);
+        }
+        this.level = level;
+    }
+
+    public void write(BufferedImage image, File file) throws IOException {
+        final OutputStream output = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        try {
+            write(image, output);
+        } finally {
+            output.close();
+        }
+    }
+
+    public void write(BufferedImage image, OutputStream output) throws IOException {
+        final ArgbRaster raster = ArgbRaster.forReadingColor(image);
+        final boolean hasAlpha = image.getColorModel().hasAlpha();
+        final int bytesPerPixel = hasAlpha ? 4 : 3;
+        final int width = raster.getWidth();
+        final int height = raster.getHeight();
+        final int rowBytes = (width * bytesPerPixel) + 1;
+        final int rowsPerBlock = Math.max(1, BLOCK_BYTES / rowBytes);
+        final int blockCount = (height + rowsPerBlock - 1) / rowsPerBlock;
+
+        final byte[][] filteredBlocks = new byte[blockCount][];
+        processBlocks(blockCount, new BlockTask() {
+            @Override
+            public void process(int block) {
+                final int startRow = block * rowsPerBlock;
+                filteredBlocks[block] = filterRows(raster, hasAlpha, startRow, Math.min(height, startRow + rowsPerBlock));
+            }
+        });
+
+        final byte[][] compressedBlocks = new byte[blockCount][];
+        processBlocks(blockCount, new BlockTask() {
+            @Override
+            public void process(int block) {
+                compressedBlocks[block] = deflateBlock(block == 0 ? null : filteredBlocks[block - 1], filteredBlocks[block], block == blockCount - 1);
+            }
+        });
+
+        final Adler32 adler = new Adler32();
+        for(byte[] filteredBlock : filteredBlocks) {
+            adler.update(filteredBlock);
+        }
+
+        final DataOutputStream dataOutput = new DataOutputStream(output);
+        dataOutput.write(SIGNATURE);
+
+        final byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = (byte)(hasAlpha ? 6 : 2);
+        writeChunk(dataOutput, "IHDR", header, 0, header.length);
+
+        writeChunk(dataOutput, "IDAT", getZlibHeader(), 0, 2);
+        for(byte[] compressedBlock : compressedBlocks) {
+            writeChunk(dataOutput, "IDAT", compressedBlock, 0, compressedBlock.length);
+        }
+        final byte[] checksum = new byte[4];
+        putInt(checksum, 0, (int)adler.getValue());
+        writeChunk(dataOutput, "IDAT", checksum, 0, checksum.length);
+
+        writeChunk(dataOutput, "IEND", new byte[0], 0, 0);
+        dataOutput.flush();
+    }
+
+    /* Blocks are already sized to be worth a task each, so they go to the shared pool one per task */
+    private static void processBlocks(int blockCount, BlockTask task) {
+        if (blockCount == 1 || RowBands.getParallelism() == 1) {
+            for(int block = 0; block < blockCount; block++) {
+                Cancellation.checkCurrent();
+                task.process(block);
+            }
+            return;
+        }
+        RowBands.invoke(new BlockAction(task, 0, blockCount, Cancellation.getCurrent()));
+    }
+
+    private byte[] filterRows(ArgbRaster raster, boolean hasAlpha, int startRow, int endRow) {
+        final int bytesPerPixel = hasAlpha ? 4 : 3;
+        final int width = raster.getWidth();
+        final int rowLength = width * bytesPerPixel;
+        final byte[] filtered = new byte[(rowLength + 1) * (endRow - startRow)];
+
+        byte[] previousRow = new byte[rowLength];
+        byte[] currentRow = new byte[rowLength];
+
+        if (startRow > 0) {
+            unpackRow(raster, hasAlpha, startRow - 1, previousRow);
+        }
+
+        int position = 0;
+        for(int y = startRow; y < endRow; y++) {
+            unpackRow(raster, hasAlpha, y, currentRow);
+
+            int bestFilter = FILTER_NONE;
+            if (level > 0) {
+                long bestScore = Long.MAX_VALUE;
+                for(int filter = FILTER_NONE; filter <= FILTER_PAETH; filter++) {
+                    final long score = applyFilter(filter, currentRow, previousRow, bytesPerPixel, null, 0, bestScore);
+                    if (score < bestScore) {
+                        bestScore = score;
+                        bestFilter = filter;
+                    }
+                }
+            }
+
+            filtered[position++] = (byte)bestFilter;
+            applyFilter(bestFilter, currentRow, previousRow, bytesPerPixel, filtered, position, Long.MAX_VALUE);
+            position += rowLength;
+
+            final byte[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+        }
+        return filtered;
+    }
+
+    private static void unpackRow(ArgbRaster raster, boolean hasAlpha, int y, byte[] row) {
+        final int[] data = raster.getData();
+        final int rowStart = raster.indexOf(0, y);
+        final int width = raster.getWidth();
+        int position = 0;
+        for(int x = 0; x < width; x++) {
+            final int pixel = data[rowStart + x];
+            row[position++] = (byte)(pixel >> 16);
+            row[position++] = (byte)(pixel >> 8);
+            row[position++] = (byte)pixel;
+            if (hasAlpha) {
+                row[position++] = (byte)(pixel >>> 24);
+            }
+        }
+    }
+
+    /*
+     * Filters a row into result at the given offset, or only scores it when result is null.  The
+     * score is the sum of the absolute filtered bytes; scoring stops once it passes the limit.
+     */
+    private static long applyFilter(int filter, byte[] row, byte[] previousRow, int bytesPerPixel, byte[] result, int offset, long limit) {
+        long score = 0;
+        for(int start = 0; start < row.length && score < limit; start += CHUNK_BYTES) {
+            final int end = Math.min(row.length, start + CHUNK_BYTES);
+            for(int i = start; i < end; i++) {
+                final byte value;
+                switch (filter) {
+                    case FILTER_SUB:
+                        value = (byte)(row[i] - (i >= bytesPerPixel ? row[i - bytesPerPixel] : 0));
+                        break;
+                    case FILTER_UP:
+                        value = (byte)(row[i] - previousRow[i]);
+                        break;
+                    case FILTER_AVERAGE:
+                        value = (byte)(row[i] - (((i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0) + (previousRow[i] & 0xFF)) >>> 1));
+                        break;
+                    case FILTER_PAETH:
+                        value = (byte)(row[i] - (i >= bytesPerPixel
+                                ? paeth(row[i - bytesPerPixel] & 0xFF, previousRow[i] & 0xFF, previousRow[i - bytesPerPixel] & 0xFF)
+                                : previousRow[i] & 0xFF));
+                        break;
+                    default:
+                        value = row[i];
+                        break;
+                }
+                if (result == null) {
+                    score += value < 0 ? -value : value;
+                } else {
+                    result[offset + i] = value;
+                }
+            }
+        }
+        return score;
+    }
+
+    private static int paeth(int left, int up, int upperLeft) {
+        final int estimate = left + up - upperLeft;
+        final int leftDistance = Math.abs(estimate - left);
+        final int upDistance = Math.abs(estimate - up);
+        final int upperLeftDistance = Math.abs(estimate - upperLeft);
+        if (leftDistance <= upDistance && leftDistance <= upperLeftDistance) {
+            return left;
+        } else if (upDistance <= upperLeftDistance) {
+            return up;
+        } else {
+            return upperLeft;
+        }
+    }
+
+    private byte[] deflateBlock(byte[] previousBlock, byte[] block, boolean lastBlock) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            if (previousBlock != null && level > 0) {
+                final int dictionaryLength = Math.min(DICTIONARY_SIZE, previousBlock.length);
+                deflater.setDictionary(previousBlock, previousBlock.length - dictionaryLength, dictionaryLength);
+            }
+            deflater.setInput(block);
+
+            byte[] output = new byte[Math.max(1024, block.length / 2)];
+            int length = 0;
+            if (lastBlock) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (length == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    length += deflater.deflate(output, length, output.length - length);
+                }
+            } else {
+                while (true) {
+                    if (length == output.length) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    final int written = deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+                    length += written;
+                    if (length < output.length) {
+                        break;
+                    }
+                }
+            }
+            return Arrays.copyOf(output, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] getZlibHeader() {
+        final int compressionMethodAndFlags = 0x78;
+        final int levelFlags;
+        if (level <= 1) {
+            levelFlags = 0;
+        } else if (level <= 5) {
+            levelFlags = 1;
+        } else if (level == 6) {
+            levelFlags = 2;
+        } else {
+            levelFlags = 3;
+        }
+        int flags = levelFlags << 6;
+        flags += (31 - (((compressionMethodAndFlags << 8) + flags) % 31)) % 31;
+        return new byte[] {(byte)compressionMethodAndFlags, (byte)flags};
+    }
+
+    private static void writeChunk(DataOutputStream output, String type, byte[] data, int offset, int length) throws IOException {
+        final byte[] typeBytes = type.getBytes("US-ASCII");
+        final CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+
+        output.writeInt(length);
+        output.write(typeBytes);
+        output.write(data, offset, length);
+        output.writeInt((int)crc.getValue());
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte)(value >>> 24);
+        target[offset + 1] = (byte)(value >>> 16);
+        target[offset + 2] = (byte)(value >>> 8);
+        target[offset + 3] = (byte)value;
+    }
+
+    private interface BlockTask {
+        void process(int block);
+    }
+
+    private static class BlockAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BlockTask task;
+        private final int startBlock;
+        private final int endBlock;
+        private final Cancellation cancellation;
+
+        BlockAction(BlockTask task, int startBlock, int endBlock, Cancellation cancellation) {
+            this.task = task;
+            this.startBlock = startBlock;
+            this.endBlock = endBlock;
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        protected void compute() {
+            if (endBlock - startBlock == 1) {
+                final Cancellation previous = Cancellation.install(cancellation);
+                try {
+                    Cancellation.checkCurrent();
+                    task.process(startBlock);
+                } finally {
+                    Cancellation.install(previous);
+                }
+            } else {
+                final int middleBlock = startBlock + ((endBlock - startBlock) / 2);
+                invokeAll(new BlockAction(task, startBlock, middleBlock, cancellation),
+                          new BlockAction(task, middleBlock, endBlock, cancellation));
+            }
+        }
+    }
+}
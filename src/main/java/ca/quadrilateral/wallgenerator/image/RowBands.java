@@ -0,0 +1,127 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+
+package ca.quadrilateral.wallgenerator.image;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Splits per-row pixel kernels into bands of rows and runs them on a shared ForkJoinPool.  Every
+ * row is processed by the same code whichever band it lands in, so results do not depend on the
+ * level of parallelism.  The pool size and the image size below which kernels stay on the calling
+ * thread are read from the wallgen.parallelism and wallgen.parallelThreshold system properties.
+ * The calling thread's Cancellation is checked before every band.
+ */
+public final class RowBands {
+    public static final String PARALLELISM_PROPERTY = "wallgen.parallelism";
+    public static final String THRESHOLD_PROPERTY = "wallgen.parallelThreshold";
+
+    private static final int PARALLELISM = Math.max(1, Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    private static final int SERIAL_THRESHOLD = Math.max(1, Integer.getInteger(THRESHOLD_PROPERTY, 64 * 1024));
+
+    public interface Task {
+        void process(int startRow, int endRow);
+    }
+
+    private static class PoolHolder {
+        private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM);
+    }
+
+    private RowBands() {
+    }
+
+    public static ForkJoinPool getPool() {
+        return PoolHolder.POOL;
+    }
+
+    public static int getParallelism() {
+        return PARALLELISM;
+    }
+
+    public static void process(int width, int height, Task task) {
+        if (height <= 0) {
+            return;
+        }
+
+        if (PARALLELISM == 1 || ((long)width * height) < SERIAL_THRESHOLD || height == 1) {
+            Cancellation.checkCurrent();
+            task.process(0, height);
+            return;
+        }
+
+        final int minimumBandRows = Math.max(1, (SERIAL_THRESHOLD / 4) / Math.max(1, width));
+        invoke(new BandAction(task, 0, height, minimumBandRows, Cancellation.getCurrent()));
+    }
+
+    /* Already on the wallgen pool the task runs in place; from anywhere else, including other pools, it is handed to it */
+    public static <T> T invoke(ForkJoinTask<T> forkJoinTask) {
+        if (ForkJoinTask.getPool() == getPool()) {
+            return forkJoinTask.invoke();
+        }
+        return getPool().invoke(forkJoinTask);
+    }
+
+    private static class BandAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Task task;
+        private final int startRow;
+        private final int endRow;
+        private final int minimumBandRows;
+        private final Cancellation cancellation;
+
+        BandAction(Task task, int startRow, int endRow, int minimumBandRows, Cancellation cancellation) {
+            this.task = task;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.minimumBandRows = minimumBandRows;
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        protected void compute() {
+            final int rows = endRow - startRow;
+            if (rows <= minimumBandRows * 2) {
+                final Cancellation previous = Cancellation.install(cancellation);
+                try {
+                    Cancellation.checkCurrent();
+                    task.process(startRow, endRow);
+                } finally {
+                    Cancellation.install(previous);
+                }
+            } else {
+                final int middleRow = startRow + (rows / 2);
+                invokeAll(new BandAction(task, startRow, middleRow, minimumBandRows, cancellation),
+                          new BandAction(task, middleRow, endRow, minimumBandRows, cancellation));
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator.image;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Decoded source images keyed by canonical path, file size and modification time, so that a file
+ * which has been replaced on disk is decoded again.  The cache is bounded by the total number of
+ * pixel bytes held and evicts the least recently used image first.  Cached images are shared
+ * between callers and must be treated as read-only.
+ *
+ * When a minimum size is given the file is decoded with source subsampling, so that the decoded
+ * image is only about twice as large as the largest image that will be scaled from it.
+ */
+public final class SourceImageCache {
+    private static final Logger log = LoggerFactory.getLogger(SourceImageCache.class);
+
+    public static final String MAXIMUM_BYTES_PROPERTY = "wallgen.sourceCacheBytes";
+
+    private static final long DEFAULT_MAXIMUM_BYTES = 256L * 1024 * 1024;
+    private static final int OVERSAMPLING = 2;
+
+    private final long maximumBytes;
+    private final Map<Key, BufferedImage> images = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+    private long currentBytes = 0;
+
+    public SourceImageCache() {
+        this(Long.getLong(MAXIMUM_BYTES_PROPERTY, DEFAULT_MAXIMUM_BYTES));
+    }
+
+    public SourceImageCache(long maximumBytes) {
+        this.maximumBytes = maximumBytes;
+    }
+
+    public BufferedImage read(File file) throws IOException {
+        return read(file, null);
+    }
+
+    public BufferedImage read(File file, Dimension minimumSize) throws IOException {
+        final Key key = new Key(file, minimumSize);
+
+        synchronized (this) {
+            final BufferedImage cachedImage = images.get(key);
+            if (cachedImage != null) {
+                log.debug("Source image cache hit: " + key.path);
+                return cachedImage;
+            }
+        }
+
+        log.debug("Source image cache miss: " + key.path);
+        final BufferedImage image = decode(file, minimumSize);
+        if (image != null) {
+            put(key, image);
+        }
+        return image;
+    }
+
+    public synchronized void clear() {
+        images.clear();
+        currentBytes = 0;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public static int getSubsampling(int sourceWidth, int sourceHeight, Dimension minimumSize) {
+        final int horizontalSubsampling = sourceWidth / Math.max(1, minimumSize.width * OVERSAMPLING);
+        final int verticalSubsampling = sourceHeight / Math.max(1, minimumSize.height * OVERSAMPLING);
+        return Math.max(1, Math.min(horizontalSubsampling, verticalSubsampling));
+    }
+
+    private static BufferedImage decode(File file, Dimension minimumSize) throws IOException {
+        if (minimumSize == null) {
+            return ImageIO.read(file);
+        }
+
+        if (!file.canRead()) {
+            throw new IIOException("Can't read input file!");
+        }
+
+        final ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IIOException("Can't create an ImageInputStream!");
+        }
+
+        try {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                final ImageReadParam readParam = reader.getDefaultReadParam();
+                final int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0), minimumSize);
+                if (subsampling > 1) {
+                    log.debug("Decoding " + file + " with subsampling " + subsampling);
+                    readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, readParam);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private synchronized void put(Key key, BufferedImage image) {
+        final long imageBytes = getPixelBytes(image);
+        if (imageBytes > maximumBytes) {
+            return;
+        }
+
+        final BufferedImage previousImage = images.put(key, image);
+        if (previousImage != null) {
+            currentBytes -= getPixelBytes(previousImage);
+        }
+        currentBytes += imageBytes;
+
+        final Iterator<BufferedImage> iterator = images.values().iterator();
+        while (currentBytes > maximumBytes && iterator.hasNext()) {
+            currentBytes -= getPixelBytes(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private static long getPixelBytes(BufferedImage image) {
+        final int bytesPerPixel = Math.max(1, (image.getColorModel().getPixelSize() + 7) / 8);
+        return (long)image.getWidth() * image.getHeight() * bytesPerPixel;
+    }
+
+    private static final class Key {
+        private final String path;
+        private final long length;
+        private final long lastModified;
+        private final Dimension minimumSize;
+
+        Key(File file, Dimension minimumSize) throws IOException {
+            this.path = file.getCanonicalPath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.minimumSize = minimumSize == null ? null : new Dimension(minimumSize);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key otherKey = (Key)other;
+            return path.equals(otherKey.path)
+                    && length == otherKey.length
+                    && lastModified == otherKey.lastModified
+                    && (minimumSize == null ? otherKey.minimumSize == null : minimumSize.equals(otherKey.minimumSize));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + (int)(length ^ (length >>> 32));
+            result = 31 * result + (int)(lastModified ^ (lastModified >>> 32));
+            result = 31 * result + (minimumSize == null ? 0 : minimumSize.hashCode());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+
+package ca.quadrilateral.wallgenerator.image;
+
+import java.awt.image.BufferedImage;
+
+public final class WarpTable {
+    public static final int NOT_COVERED = -1;
+
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int width;
+    private final int height;
+    private final int[] sourceIndexes;
+    private final CoverageSpans coverage;
+
+    WarpTable(int sourceWidth, int sourceHeight, int width, int height, int[] sourceIndexes, CoverageSpans coverage) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.width = width;
+        this.height = height;
+        this.sourceIndexes = sourceIndexes;
+        this.coverage = coverage;
+    }
+
+    public boolean matches(int sourceWidth, int sourceHeight, int width, int height) {
+        return this.sourceWidth == sourceWidth
+                && this.sourceHeight == sourceHeight
+                && this.width == width
+                && this.height == height;
+    }
+
+    public int getSourceWidth() {
+        return this.sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return this.sourceHeight;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public CoverageSpans getCoverage() {
+        return this.coverage;
+    }
+
+    public BufferedImage apply(BufferedImage sourceImage) {
+        return apply(sourceImage, null);
+    }
+
+    /* Blends each source sample as it is gathered, so no blended copy of the source is needed */
+    public BufferedImage apply(BufferedImage sourceImage, final DistanceBlend blend) {
+        if (sourceImage.getWidth() != this.sourceWidth || sourceImage.getHeight() != this.sourceHeight) {
+            throw new IllegalArgumentException("Source image is " + sourceImage.getWidth() + "x" + sourceImage.getHeight()
+                    + " but warp table was built for " + this.sourceWidth + "x" + this.sourceHeight);
+        }
+        if (blend != null && blend.getWidth() != this.sourceWidth) {
+            throw new IllegalArgumentException("Blend is " + blend.getWidth() + " pixels wide but warp table was built for " + this.sourceWidth);
+        }
+
+        final int[] sourceData = ArgbRaster.forReading(sourceImage).toPackedArray();
+        final BufferedImage destinationImage = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_ARGB);
+        final ArgbRaster destination = ArgbRaster.forWriting(destinationImage);
+        final int[] destinationData = destination.getData();
+        final int[] sourceIndexes = this.sourceIndexes;
+        final CoverageSpans coverage = this.coverage;
+        final int tableWidth = this.width;
+        final int blendWidth = this.sourceWidth;
+
+        RowBands.process(this.width, this.height, new RowBands.Task() {
+            @Override
+            public void process(int startRow, int endRow) {
+                for(int y = startRow; y < endRow; y++) {
+                    final int tableRow = y * tableWidth;
+                    final int destinationRow = destination.indexOf(0, y);
+                    final int endX = coverage.getRowEnd(y);
+                    for(int x = coverage.getRowStart(y); x < endX; x++) {
+                        final int sourceIndex = sourceIndexes[tableRow + x];
+                        if (sourceIndex == NOT_COVERED) {
+                            continue;
+                        }
+                        if (blend == null) {
+                            destinationData[destinationRow + x] = sourceData[sourceIndex];
+                        } else {
+                            destinationData[destinationRow + x] = blend.apply(sourceData[sourceIndex], sourceIndex % blendWidth);
+                        }
+                    }
+                }
+            }
+        });
+
+        return destinationImage;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator.settings;
+
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.quadrilateral.wallgenerator.config.PostProcessingConfig;
+
+import com.mortennobel.imagescaling.AdvancedResizeOp.UnsharpenMask;
+
+/*
+ * The settings stored in a presets file, read without an OptionPanel so that they can be used by
+ * the command line renderer.  The labels used for the scaling method, unsharp mask and filter
+ * order are the same ones shown in the option panel combo boxes.
+ */
+public class Presets {
+	public static final Map<String, Object> SCALING_METHODS;
+	public static final Map<String, UnsharpenMask> UNSHARP_MASKS;
+	public static final List<String> FILTER_ORDERS = Collections.unmodifiableList(Arrays.asList("Unsharp then Soften", "Soften then Unsharp"));
+	
+	static {
+		final Map<String, Object> scalingMethods = new LinkedHashMap<String, Object>();
+		scalingMethods.put("Nearest Neighbour", RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		scalingMethods.put("Bilinear", RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		scalingMethods.put("Bicubic", RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+		scalingMethods.put("Resample", "Resample");
+		SCALING_METHODS = Collections.unmodifiableMap(scalingMethods);
+		
+		final Map<String, UnsharpenMask> unsharpMasks = new LinkedHashMap<String, UnsharpenMask>();
+		unsharpMasks.put("None", UnsharpenMask.None);
+		unsharpMasks.put("Soft", UnsharpenMask.Soft);
+		unsharpMasks.put("Normal", UnsharpenMask.Normal);
+		unsharpMasks.put("Very Sharp", UnsharpenMask.VerySharp);
+		unsharpMasks.put("Oversharpened", UnsharpenMask.Oversharpened);
+		UNSHARP_MASKS = Collections.unmodifiableMap(unsharpMasks);
+	}
+	
+	private String resolution = null;
+	private String outputFormat = null;
+	private String outputFileType = null;
+	private boolean useTransparency = false;
+	private double nearWallDarkening = 0;
+	private double farWallDarkening = 0;
+	private double softening = 0;
+	private String imageScalingMethod = null;
+	private String unsharpMask = null;
+	private String filterOrder = null;
+	
+	public String getResolution() {
+		return this.resolution;
+	}
+	public void setResolution(String resolution) {
+		this.resolution = resolution;
+	}
+	public String getOutputFormat() {
+		return this.outputFormat;
+	}
+	public void setOutputFormat(String outputFormat) {
+		this.outputFormat = outputFormat;
+	}
+	public String getOutputFileType() {
+		return this.outputFileType;
+	}
+	public void setOutputFileType(String outputFileType) {
+		this.outputFileType = outputFileType;
+	}
+	public boolean isUseTransparency() {
+		return this.useTransparency;
+	}
+	public void setUseTransparency(boolean useTransparency) {
+		this.useTransparency = useTransparency;
+	}
+	public double getNearWallDarkening() {
+		return this.nearWallDarkening;
+	}
+	public void setNearWallDarkening(double nearWallDarkening) {
+		this.nearWallDarkening = nearWallDarkening;
+	}
+	public double getFarWallDarkening() {
+		return this.farWallDarkening;
+	}
+	public void setFarWallDarkening(double farWallDarkening) {
+		this.farWallDarkening = farWallDarkening;
+	}
+	public double getSoftening() {
+		return this.softening;
+	}
+	public void setSoftening(double softening) {
+		this.softening = softening;
+	}
+	public String getImageScalingMethod() {
+		return this.imageScalingMethod;
+	}
+	public void setImageScalingMethod(String imageScalingMethod) {
+		if (!SCALING_METHODS.containsKey(imageScalingMethod)) {
+			throw new IllegalArgumentException("Invalid Scaling Method Specified!");
+		}
+		this.imageScalingMethod = imageScalingMethod;
+	}
+	public String getUnsharpMask() {
+		return this.unsharpMask;
+	}
+	public void setUnsharpMask(String unsharpMask) {
+		if (!UNSHARP_MASKS.containsKey(unsharpMask)) {
+			throw new IllegalArgumentException("Invalid Unsharp Mask Specified!");
+		}
+		this.unsharpMask = unsharpMask;
+	}
+	public String getFilterOrder() {
+		return this.filterOrder;
+	}
+	public void setFilterOrder(String filterOrder) {
+		if (!FILTER_ORDERS.contains(filterOrder)) {
+			throw new IllegalArgumentException("Invalid Filter Order Specified!");
+		}
+		this.filterOrder = filterOrder;
+	}
+	
+	public PostProcessingConfig createPostProcessingConfig(Color distanceBlendColor) {
+		final PostProcessingConfig config = new PostProcessingConfig();
+		
+		config.farDarkening = (float)this.farWallDarkening;
+		config.nearDarkening = (float)this.nearWallDarkening;
+		config.scalingMethod = SCALING_METHODS.get(this.imageScalingMethod);
+		config.softening = (float)this.softening;
+		config.unsharpenMask = UNSHARP_MASKS.get(this.unsharpMask);
+		config.postProcessingOrder = FILTER_ORDERS.indexOf(this.filterOrder);
+		config.distanceBlendColor = distanceBlendColor;
+		
+		return config;
+	}
+}
@@ -59,6 +59,34 @@ public class SettingsDeserializer {
 		
 	}
 	
+	/* Reads a presets file without an OptionPanel.  Colours are applied to the ConfigManager as usual. */
+	public Presets readPresets(File file) throws Exception {
+		final Document doc = getXmlDocument(file);
+		final Presets presets = new Presets();
+		
+		final Node basicOptionsNode = getOptionNode(doc, "basicOptions");
+		presets.setResolution(XmlDomUtilities.getAttributeValue(basicOptionsNode, "resolution"));
+		presets.setOutputFormat(XmlDomUtilities.getAttributeValue(basicOptionsNode, "outputFormat"));
+		presets.setOutputFileType(XmlDomUtilities.getAttributeValue(basicOptionsNode, "outputFileType"));
+		
+		final Node colorOptionsNode = getOptionNode(doc, "colorOptions");
+		loadConfigColors(colorOptionsNode);
+		presets.setUseTransparency(
+				XmlDomUtilities.getAttributeValueAsBoolean(
+						colorOptionsNode, 
+						SettingsSerializer.USE_ALPHA_ATTRIBUTE_NAME));
+		
+		final Node processingOptionsNode = getOptionNode(doc, "processingOptions");
+		presets.setNearWallDarkening(XmlDomUtilities.getAttributeValueAsDouble(processingOptionsNode, "distanceBlendNear"));
+		presets.setFarWallDarkening(XmlDomUtilities.getAttributeValueAsDouble(processingOptionsNode, "distanceBlendFar"));
+		presets.setSoftening(XmlDomUtilities.getAttributeValueAsDouble(processingOptionsNode, "soften"));
+		presets.setImageScalingMethod(XmlDomUtilities.getAttributeValue(processingOptionsNode, "imageScalingMethod"));
+		presets.setUnsharpMask(XmlDomUtilities.getAttributeValue(processingOptionsNode, "unsharpMask"));
+		presets.setFilterOrder(XmlDomUtilities.getAttributeValue(processingOptionsNode, "filterOrder"));
+		
+		return presets;
+	}
+	
 	private Document getXmlDocument(File file) throws Exception {
 		final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
 		final DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
@@ -107,6 +135,17 @@ public class SettingsDeserializer {
 	private void loadColorOptions(Document doc, OptionPanel optionPanel) throws Exception {				
 		final Node colorOptionsNode = getOptionNode(doc, "colorOptions");
 		
+		loadConfigColors(colorOptionsNode);
+		
+		optionPanel.setUseTransparency(
+				XmlDomUtilities.getAttributeValueAsBoolean(
+						colorOptionsNode, 
+						SettingsSerializer.USE_ALPHA_ATTRIBUTE_NAME));
+		
+		optionPanel.refreshColorPanelOptions();
+	}
+	
+	private void loadConfigColors(Node colorOptionsNode) throws Exception {
 		setConfigColor(
 				ConfigManager.TEXT_COLOR_KEY, 
 				XmlDomUtilities.getAttributeValue(
@@ -136,13 +175,6 @@ public class SettingsDeserializer {
 				XmlDomUtilities.getAttributeValue(
 						colorOptionsNode, 
 						SettingsSerializer.TRANSPARENCY_COLOR_ATTRIBUTE_NAME));
-		
-		optionPanel.setUseTransparency(
-				XmlDomUtilities.getAttributeValueAsBoolean(
-						colorOptionsNode, 
-						SettingsSerializer.USE_ALPHA_ATTRIBUTE_NAME));
-		
-		optionPanel.refreshColorPanelOptions();
 	}
 	
 	private void setConfigColor(String key, String nodeValue) {
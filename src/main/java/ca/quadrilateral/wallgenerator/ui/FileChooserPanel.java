@@ -44,7 +44,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
-import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
@@ -103,7 +102,9 @@ public class FileChooserPanel extends JPanel {
     
     private final JSpinner storySpinner = new JSpinner(new SpinnerNumberModel(1, 1, 3, 1));
     
-    private final ImagePreviewPanel previewPanel = new ImagePreviewPanel(112, 134);
+    private static final Dimension PREVIEW_SIZE = new Dimension(112, 134);
+    
+    private final ImagePreviewPanel previewPanel = new ImagePreviewPanel(PREVIEW_SIZE.width, PREVIEW_SIZE.height);
 
     private final JFileChooser sourceImageFileChooser = new SourceImageFileChooser();
     private final JFileChooser targetDirectoryFileChooser = new TargetDirectoryFileChooser();
@@ -338,7 +339,7 @@ public class FileChooserPanel extends JPanel {
     		this.clearThirdStoryFileTextButton.setText("Clear");    		
     	}
     	
-        this.previewPanel.setPreferredSize(new Dimension(112, 134));
+        this.previewPanel.setPreferredSize(new Dimension(PREVIEW_SIZE));
         this.sourceFileNameTextField.setEditable(false);
         this.secondStorySourceFileNameTextField.setEditable(false);
         this.thirdStorySourceFileNameTextField.setEditable(false);
@@ -474,7 +475,7 @@ public class FileChooserPanel extends JPanel {
 	    	
 	    	for(File file : files) {
 	    		if (file.canRead()) {
-	    			previewImages.add(ImageIO.read(file));
+	    			previewImages.add(WallGenerator.getSourceImageCache().read(file, PREVIEW_SIZE));
 	    		}
 	    	}
 	    	
@@ -0,0 +1,92 @@
+/*
+Copyright 2011 Daniel Morton. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are
+permitted provided that the following conditions are met:
+
+   1. Redistributions of source code must retain the above copyright notice, this list of
+      conditions and the following disclaimer.
+
+   2. Redistributions in binary form must reproduce the above copyright notice, this list
+      of conditions and the following disclaimer in the documentation and/or other materials
+      provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY Daniel Morton ''AS IS'' AND ANY EXPRESS OR IMPLIED
+WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Daniel Morton OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those of the
+authors and should not be interpreted as representing official policies, either expressed
+or implied, of Daniel Morton.
+*/
+
+package ca.quadrilateral.wallgenerator.ui;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import javax.swing.BorderFactory;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+
+/*
+ * A modeless window showing the most recent live preview, scaled to fit, with a status line
+ * underneath saying whether a newer one is on its way.
+ */
+public class LivePreviewDialog extends JDialog {
+    private static final long serialVersionUID = 1L;
+
+    private final JLabel statusLabel = new JLabel(" ");
+    private BufferedImage image = null;
+
+    private final JPanel imagePanel = new JPanel(true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void paint(Graphics g) {
+            super.paint(g);
+            if (image != null) {
+                final double scale = Math.min(1.0, Math.min((double)getWidth() / image.getWidth(), (double)getHeight() / image.getHeight()));
+                final int width = (int)(image.getWidth() * scale);
+                final int height = (int)(image.getHeight() * scale);
+                final Graphics2D graphics = (Graphics2D)g;
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(image, (getWidth() - width) / 2, (getHeight() - height) / 2, width, height, null);
+            }
+        }
+    };
+
+    public LivePreviewDialog(JFrame owner) {
+        super(owner, "Live Preview", false);
+        this.setSize(900, 350);
+        this.setLocationRelativeTo(owner);
+
+        imagePanel.setPreferredSize(new Dimension(880, 300));
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(3, 5, 3, 5));
+
+        this.getContentPane().setLayout(new BorderLayout());
+        this.getContentPane().add(imagePanel, BorderLayout.CENTER);
+        this.getContentPane().add(statusLabel, BorderLayout.SOUTH);
+    }
+
+    public void setImage(BufferedImage image) {
+        this.image = image;
+        imagePanel.repaint();
+    }
+
+    public void setStatus(String status) {
+        statusLabel.setText(status);
+    }
+}
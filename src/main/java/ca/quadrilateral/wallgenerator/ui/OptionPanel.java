@@ -62,6 +62,9 @@ public class OptionPanel extends OptionPanelUIBase {
 	private static final Logger log = LoggerFactory.getLogger(OptionPanel.class);
     private static final long serialVersionUID = 1L;
 
+    /* Action command for changes that only affect how the walls are written, not how they are generated */
+    public static final String OUTPUT_SETTINGS_CHANGED_COMMAND = "OutputSettingsChanged";
+
     private Collection<ActionListener> previewWallsActionListeners = new ArrayList<ActionListener>();
     private Collection<ActionListener> generateWallsActionListeners = new ArrayList<ActionListener>();
     private Collection<ActionListener> changeGenerationSettingsListeners = new ArrayList<ActionListener>();
@@ -125,6 +128,18 @@ public class OptionPanel extends OptionPanelUIBase {
         this.generateWallsActionListeners.add(actionListener);
     }
 
+    public void addLivePreviewActionListener(ActionListener actionListener) {
+        this.livePreviewCheckBox.addActionListener(actionListener);
+    }
+
+    public boolean isLivePreviewEnabled() {
+        return this.livePreviewCheckBox.isSelected();
+    }
+
+    public void setLivePreviewEnabled(boolean livePreviewEnabled) {
+        this.livePreviewCheckBox.setSelected(livePreviewEnabled);
+    }
+
     private void fireChangeGenerationSettingsListeners(ActionEvent event) {
         for(ActionListener listener : this.changeGenerationSettingsListeners) {
         	log.debug("Invalidating Wall Cache...");
@@ -222,16 +237,11 @@ public class OptionPanel extends OptionPanelUIBase {
     		@Override
     		public void actionPerformed(ActionEvent e) {
     			handleColorChange("Distance Blending", selectedDistanceBlendColorPanel.getBackground(), selectedDistanceBlendColorPanel);
+    			/* Only once the colour is set, so that a live preview picks up the new colour */
+    			fireChangeGenerationSettingsListeners(e);
     		}
     	});
     	
-    	this.changeDistanceBlendColorButton.addActionListener(new ActionListener() {
-        	@Override
-        	public void actionPerformed(ActionEvent e) {
-        		fireChangeGenerationSettingsListeners(e);
-        	}
-        });
-    	
     	this.changeBackgroundColorButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
@@ -293,9 +303,15 @@ public class OptionPanel extends OptionPanelUIBase {
         processOrderComboBox.addActionListener(invalidateGeneratedWallsActionListener);
         
         final ChangeGenerationSettingActionListener changeListener = new ChangeGenerationSettingActionListener();
+        final ActionListener outputChangeListener = new ActionListener() {
+        	@Override
+        	public void actionPerformed(ActionEvent e) {
+        		fireChangeGenerationSettingsListeners(new ActionEvent(e.getSource(), e.getID(), OUTPUT_SETTINGS_CHANGED_COMMAND));
+        	}
+        };
         
-        outputFileFormatCombo.addActionListener(changeListener);
-        outputFileTypeCombo.addActionListener(changeListener);
+        outputFileFormatCombo.addActionListener(outputChangeListener);
+        outputFileTypeCombo.addActionListener(outputChangeListener);
         resolutionCombo.addActionListener(changeListener);
     }
     
@@ -32,7 +32,7 @@ import info.clearthought.layout.TableLayout;
 import java.awt.BorderLayout;
 import java.awt.Font;
 import java.awt.LayoutManager;
-import java.awt.RenderingHints;
+import java.util.Map;
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
 import javax.swing.ComboBoxModel;
@@ -40,6 +40,7 @@ import javax.swing.DefaultComboBoxModel;
 import javax.swing.ImageIcon;
 import javax.swing.InputVerifier;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
@@ -55,6 +56,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ca.quadrilateral.wallgenerator.WallGenerator;
+import ca.quadrilateral.wallgenerator.settings.Presets;
 
 import com.mortennobel.imagescaling.AdvancedResizeOp.UnsharpenMask;
 
@@ -70,6 +72,7 @@ public abstract class OptionPanelUIBase extends JPanel {
     protected JButton generateWallsButton = new JButton("Generate Walls");
     protected JButton savePresetsButton = new JButton("Save Presets");
     protected JButton loadPresetsButton = new JButton("Load Presets");
+    protected JCheckBox livePreviewCheckBox = new JCheckBox("Live Preview");
 
     protected JSpinner nearByDarkeningSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1, 0.01));
     protected JSpinner farAwayDarkeningSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1, 0.01));
@@ -93,7 +96,7 @@ public abstract class OptionPanelUIBase extends JPanel {
     
     protected JComboBox scalingMethodComboBox = new JComboBox();
     protected JComboBox unsharpMaskComboBox = new JComboBox();
-    protected JComboBox processOrderComboBox = new JComboBox(new Object[] {"Unsharp then Soften", "Soften then Unsharp"});
+    protected JComboBox processOrderComboBox = new JComboBox(Presets.FILTER_ORDERS.toArray());
     protected JSpinner softeningSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1, 0.01));
     
     
@@ -144,6 +147,7 @@ public abstract class OptionPanelUIBase extends JPanel {
     	final TableLayout layout = new TableLayout(layoutDescriptor);
     	this.buttonPanel.setLayout(layout);
     	
+    	this.buttonPanel.add(this.livePreviewCheckBox, "0, 1, l, c");
     	this.buttonPanel.add(this.savePresetsButton, "1, 1");
     	this.buttonPanel.add(this.loadPresetsButton, "3, 1");
     	this.buttonPanel.add(this.previewWallsButton, "5, 1");
@@ -275,17 +279,14 @@ public abstract class OptionPanelUIBase extends JPanel {
     	processingPanel.setBorder(BorderFactory.createBevelBorder(BevelBorder.LOWERED));
     	
     	final DefaultComboBoxModel scalingMethodModel = (DefaultComboBoxModel)scalingMethodComboBox.getModel();
-    	scalingMethodModel.addElement(new ComboBoxItemContainer("Nearest Neighbour", RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR));
-    	scalingMethodModel.addElement(new ComboBoxItemContainer("Bilinear", RenderingHints.VALUE_INTERPOLATION_BILINEAR));
-    	scalingMethodModel.addElement(new ComboBoxItemContainer("Bicubic", RenderingHints.VALUE_INTERPOLATION_BICUBIC));
-    	scalingMethodModel.addElement(new ComboBoxItemContainer("Resample", "Resample"));
+    	for(Map.Entry<String, Object> scalingMethod : Presets.SCALING_METHODS.entrySet()) {
+    		scalingMethodModel.addElement(new ComboBoxItemContainer(scalingMethod.getKey(), scalingMethod.getValue()));
+    	}
     	    	
     	final DefaultComboBoxModel unsharpMethodModel = (DefaultComboBoxModel)unsharpMaskComboBox.getModel();
-    	unsharpMethodModel.addElement(new ComboBoxItemContainer("None", UnsharpenMask.None));
-    	unsharpMethodModel.addElement(new ComboBoxItemContainer("Soft", UnsharpenMask.Soft));    	
-    	unsharpMethodModel.addElement(new ComboBoxItemContainer("Normal", UnsharpenMask.Normal));
-    	unsharpMethodModel.addElement(new ComboBoxItemContainer("Very Sharp", UnsharpenMask.VerySharp));
-    	unsharpMethodModel.addElement(new ComboBoxItemContainer("Oversharpened", UnsharpenMask.Oversharpened));
+    	for(Map.Entry<String, UnsharpenMask> unsharpMask : Presets.UNSHARP_MASKS.entrySet()) {
+    		unsharpMethodModel.addElement(new ComboBoxItemContainer(unsharpMask.getKey(), unsharpMask.getValue()));
+    	}
     	
     	scalingMethodComboBox.setFont(scalingMethodComboBox.getFont().deriveFont(Font.PLAIN));
     	unsharpMaskComboBox.setFont(unsharpMaskComboBox.getFont().deriveFont(Font.PLAIN));
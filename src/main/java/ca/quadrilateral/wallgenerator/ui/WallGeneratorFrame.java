@@ -51,6 +51,7 @@ public class WallGeneratorFrame extends JFrame {
     private static final long serialVersionUID = 1L;
 
     private Controller controller = null;
+    private final GenerationProgressPanel generationProgressPanel = new GenerationProgressPanel();
 
     public WallGeneratorFrame() {
         super("WallGenerator v{version}");
@@ -64,15 +65,16 @@ public class WallGeneratorFrame extends JFrame {
         this.getContentPane().add(fileChooserPanel, BorderLayout.NORTH);
         this.getContentPane().add(optionPanel, BorderLayout.CENTER);
 
-        double[][] buttonPanelLayoutDescriptor = new double[][] {{5, TableLayout.FILL, TableLayout.PREFERRED, 5, TableLayout.PREFERRED, 5},{5, TableLayout.PREFERRED, 5}};
+        double[][] buttonPanelLayoutDescriptor = new double[][] {{5, TableLayout.FILL, TableLayout.PREFERRED, 5, TableLayout.PREFERRED, 5},{TableLayout.PREFERRED, 5, TableLayout.PREFERRED, 5}};
         TableLayout buttonPanelLayout = new TableLayout(buttonPanelLayoutDescriptor);
         JPanel buttonPanel = new JPanel(buttonPanelLayout);
 
         JButton exitButton = new JButton("Exit");
         JButton reloadConfigButton = new JButton("Reload Config");
-        buttonPanel.add(new JLabel("Wall Generator - By Daniel Morton (djmorton@quadrilateral.ca) - www.quadrilateral.ca/wallgen"), "1, 1, l, f");
-        buttonPanel.add(reloadConfigButton, "2, 1");
-        buttonPanel.add(exitButton, "4, 1");
+        buttonPanel.add(generationProgressPanel, "0, 0, 5, 0");
+        buttonPanel.add(new JLabel("Wall Generator - By Daniel Morton (djmorton@quadrilateral.ca) - www.quadrilateral.ca/wallgen"), "1, 2, l, f");
+        buttonPanel.add(reloadConfigButton, "2, 2");
+        buttonPanel.add(exitButton, "4, 2");
 
         exitButton.addActionListener(new ActionListener() {
             @Override
@@ -104,4 +106,8 @@ public class WallGeneratorFrame extends JFrame {
         this.controller.loadDefaultSettingsFile();
     }
 
+    public GenerationProgressPanel getGenerationProgressPanel() {
+        return generationProgressPanel;
+    }
+
 }